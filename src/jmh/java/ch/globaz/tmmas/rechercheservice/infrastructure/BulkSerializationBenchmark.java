@@ -0,0 +1,98 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sérialisation d'un lot _bulk: encodage des personnes, construction de la {@code BulkRequest}
+ * puis écriture du corps ndjson comme le fait le client, comparés à l'encodage direct du corps
+ * dans un tampon réutilisé (avec ou sans gzip); et lecture de la réponse _bulk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkSerializationBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int documents;
+
+    private PersonneEncoder encoder;
+    private BulkBufferPool pool;
+    private BulkBodyEncoder bodyEncoder;
+    private List<Personne> personnes;
+    private String bulkResponse;
+
+    @Setup
+    public void setup() {
+        encoder = new PersonneEncoder(Fixtures.objectMapper());
+        pool = new BulkBufferPool(1, Long.MAX_VALUE);
+        bodyEncoder = new BulkBodyEncoder(encoder, pool);
+        personnes = Fixtures.personnes(documents);
+        bulkResponse = Fixtures.bulkResponseJson(documents);
+    }
+
+    @Benchmark
+    public byte[] bulkRequestBody() throws IOException {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (Personne personne : personnes) {
+            bulkRequest.add(new IndexRequest("personne", "personne", personne.getUsername())
+                    .source(encoder.encode(personne), XContentType.JSON));
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (DocWriteRequest<?> request : bulkRequest.requests()) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            body.write(("{\"index\":{\"_index\":\"" + indexRequest.index() + "\",\"_type\":\"" + indexRequest.type()
+                    + "\",\"_id\":\"" + indexRequest.id() + "\"}}\n").getBytes(StandardCharsets.UTF_8));
+            indexRequest.source().writeTo(body);
+            body.write('\n');
+        }
+        return body.toByteArray();
+    }
+
+    @Benchmark
+    public int directBody() throws IOException {
+        return direct(false);
+    }
+
+    @Benchmark
+    public int directGzipBody() throws IOException {
+        return direct(true);
+    }
+
+    @Benchmark
+    public BulkResponse bulkResponse() {
+        return Fixtures.parse(bulkResponse, BulkResponse::fromXContent);
+    }
+
+    private int direct(boolean gzip) throws IOException {
+        BulkBodyEncoder.BulkBody body = bodyEncoder.encode(personnes, "personne", "personne", gzip);
+        int size = body.getBuffer().size();
+        pool.release(body.getBuffer());
+        return size;
+    }
+}
@@ -0,0 +1,53 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fusion des classements wildcards et fuzzy de la recherche composée, les deux classements
+ * ayant la moitié de leurs documents en commun.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComposedMergeBenchmark {
+
+    @Param({"5", "100"})
+    public int size;
+
+    @Param({"RRF", "SCORE"})
+    public RankFusion.Strategy strategy;
+
+    private RankFusion fusion;
+    private List<SearchHit[]> rankings;
+
+    @Setup
+    public void setup() {
+        fusion = new RankFusion(strategy, 60);
+        rankings = Arrays.asList(
+                Fixtures.searchResponse(size, 0).getHits().getHits(),
+                Fixtures.searchResponse(size, size / 2).getHits().getHits());
+    }
+
+    @Benchmark
+    public List<SearchHit> fuse() {
+        return fusion.fuse(rankings, size);
+    }
+}
@@ -0,0 +1,80 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import ch.globaz.tmmas.rechercheservice.domaine.PersonneResume;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Décodage des hits en {@code Personne}: lecteur sur les octets source, comparé à la lecture
+ * via {@code getSourceAsString} puis {@code readValue}, et décodage d'une réponse get.
+ * Le décodage de la vue résumée porte sur des sources filtrées sur {@link PersonneResume#FIELDS}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"5", "100"})
+    public int hits;
+
+    private PersonneDecoder decoder;
+    private ObjectMapper objectMapper;
+    private SearchHits searchHits;
+    private SearchHits resumeHits;
+    private GetResponse getResponse;
+
+    @Setup
+    public void setup() {
+        objectMapper = Fixtures.objectMapper();
+        decoder = new PersonneDecoder(objectMapper);
+        searchHits = Fixtures.searchResponse(hits, 0).getHits();
+        resumeHits = Fixtures.searchResponse(hits, 0, Fixtures.sources(PersonneResume.FIELDS)).getHits();
+        getResponse = Fixtures.getResponse();
+    }
+
+    @Benchmark
+    public List<Personne> decodeSourceBytes() {
+        return decoder.decode(searchHits);
+    }
+
+    @Benchmark
+    public void decodeSourceString(Blackhole blackhole) throws IOException {
+        for (SearchHit hit : searchHits.getHits()) {
+            blackhole.consume(objectMapper.readValue(hit.getSourceAsString(), Personne.class));
+        }
+    }
+
+    @Benchmark
+    public void decodeResume(Blackhole blackhole) {
+        for (SearchHit hit : resumeHits.getHits()) {
+            blackhole.consume(decoder.decodeResume(hit.getSourceRef()));
+        }
+    }
+
+    @Benchmark
+    public Personne decodeGetResponse() {
+        return decoder.decode(getResponse);
+    }
+}
@@ -0,0 +1,186 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Données des benchmarks: les documents de {@code PersonneDocumentsExample} et des réponses elasticsearch
+ * construites à partir de ceux-ci, parsées comme le fait le client haut niveau.
+ */
+final class Fixtures {
+
+    private static final String INDEX = "personne";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return un ObjectMapper configuré comme celui de l'application
+     */
+    static ObjectMapper objectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.findAndRegisterModules();
+        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        return objectMapper;
+    }
+
+    /**
+     * @return la configuration elasticsearch de l'application (application.yml)
+     */
+    static ElasticSearchProperties properties() {
+        try {
+            return new Binder(ConfigurationPropertySources.from(new YamlPropertySourceLoader()
+                    .load("application", new ClassPathResource("application.yml"))))
+                    .bind("elasticsearch", ElasticSearchProperties.class)
+                    .get();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return les sources JSON compactes des documents d'exemple
+     */
+    static List<String> sources() {
+        try (InputStream in = new ClassPathResource("fixtures/personnes.json").getInputStream()) {
+            List<String> sources = new ArrayList<>();
+            objectMapper().readTree(in).forEach(node -> sources.add(node.toString()));
+            return sources;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param includes les champs conservés, chemins pointés (ex: {@code adresse.localite})
+     * @return les sources des documents d'exemple filtrées comme par {@code _source} includes
+     */
+    static List<String> sources(String... includes) {
+        ObjectMapper objectMapper = objectMapper();
+        List<String> filtered = new ArrayList<>();
+        try {
+            for (String source : sources()) {
+                JsonNode document = objectMapper.readTree(source);
+                ObjectNode projected = objectMapper.createObjectNode();
+                for (String include : includes) {
+                    copy(document, projected, include.split("\\."), 0);
+                }
+                filtered.add(projected.toString());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return filtered;
+    }
+
+    private static void copy(JsonNode from, ObjectNode to, String[] path, int depth) {
+        JsonNode value = from.get(path[depth]);
+        if (value == null) {
+            return;
+        }
+        if (depth == path.length - 1) {
+            to.set(path[depth], value);
+        } else {
+            JsonNode child = to.get(path[depth]);
+            copy(value, child instanceof ObjectNode ? (ObjectNode) child : to.putObject(path[depth]), path, depth + 1);
+        }
+    }
+
+    /**
+     * @param count le nombre de personnes, les documents d'exemple étant répétés
+     * @return des personnes aux usernames distincts
+     */
+    static List<Personne> personnes(int count) {
+        ObjectMapper objectMapper = objectMapper();
+        List<String> sources = sources();
+        List<Personne> personnes = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Personne personne = objectMapper.readValue(sources.get(i % sources.size()), Personne.class);
+                personne.setUsername(personne.getUsername() + i);
+                personnes.add(personne);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return personnes;
+    }
+
+    /**
+     * @param hits le nombre de hits
+     * @param offset décalage des ids et des scores, pour obtenir des classements qui se recoupent en partie
+     */
+    static SearchResponse searchResponse(int hits, int offset) {
+        return searchResponse(hits, offset, sources());
+    }
+
+    /**
+     * @param sources les sources des hits, répétées
+     */
+    static SearchResponse searchResponse(int hits, int offset, List<String> sources) {
+        StringBuilder json = new StringBuilder()
+                .append("{\"took\":3,\"timed_out\":false,")
+                .append("\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0},")
+                .append("\"hits\":{\"total\":").append(hits).append(",\"max_score\":").append(hits).append(",\"hits\":[");
+
+        for (int i = 0; i < hits; i++) {
+            String id = "u" + (i + offset);
+            float score = hits - i;
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"_index\":\"").append(INDEX).append("\",\"_type\":\"").append(INDEX)
+                    .append("\",\"_id\":\"").append(id).append("\",\"_score\":").append(score)
+                    .append(",\"_source\":").append(sources.get(i % sources.size()))
+                    .append(",\"sort\":[").append(score).append(",\"").append(id).append("\"]}");
+        }
+        json.append("]}}");
+
+        return parse(json.toString(), SearchResponse::fromXContent);
+    }
+
+    static GetResponse getResponse() {
+        String json = "{\"_index\":\"" + INDEX + "\",\"_type\":\"" + INDEX + "\",\"_id\":\"sce\",\"_version\":1,"
+                + "\"found\":true,\"_source\":" + sources().get(0) + "}";
+        return parse(json, GetResponse::fromXContent);
+    }
+
+    static String bulkResponseJson(int items) {
+        StringBuilder json = new StringBuilder("{\"took\":30,\"errors\":false,\"items\":[");
+        for (int i = 0; i < items; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"index\":{\"_index\":\"").append(INDEX).append("\",\"_type\":\"").append(INDEX)
+                    .append("\",\"_id\":\"u").append(i).append("\",\"_version\":1,\"result\":\"created\",")
+                    .append("\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},")
+                    .append("\"status\":201,\"_seq_no\":").append(i).append(",\"_primary_term\":1}}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static <T> T parse(String json, CheckedFunction<XContentParser, T, IOException> fromXContent) {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY, json)) {
+            return fromXContent.apply(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction de la requête d'une méthode de recherche, et sérialisation de la source complète
+ * telle qu'envoyée par le client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuildingBenchmark {
+
+    @Param({"fuzzy", "wildcards"})
+    public String methode;
+
+    private QueryBuilderFactory factory;
+
+    @Setup
+    public void setup() {
+        factory = new QueryBuilderFactory(Fixtures.properties());
+    }
+
+    @Benchmark
+    public QueryBuilder queryBuilder() {
+        return factory.queryBuilder(methode, "756.12");
+    }
+
+    @Benchmark
+    public String searchSource() {
+        return Strings.toString(new SearchSourceBuilder()
+                .query(factory.queryBuilder(methode, "756.12"))
+                .size(5)
+                .sort(SortBuilders.scoreSort())
+                .sort(SortBuilders.fieldSort("username.keyword").order(SortOrder.ASC)));
+    }
+}
@@ -0,0 +1,344 @@
+package ch.globaz.tmmas.rechercheservice.load;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Substitut local d'elasticsearch pour les tests de charge.<br/>
+ * Répond aux requêtes émises par le service ({@code _search}, {@code _msearch}, {@code _mget}, get et index
+ * de documents, {@code _bulk}, scroll et gestion de l'index) avec des réponses construites à partir
+ * des documents d'exemple, après une latence configurable.<br/>
+ * La latence est simulée sans bloquer de thread: la réponse est planifiée, comme le ferait un cluster distant.
+ */
+@Slf4j
+public class FakeElasticSearch implements AutoCloseable {
+
+    private static final String INDEX = ElasticSearchIndexes.PERSONNES.index();
+    private static final String TYPE = ElasticSearchIndexes.PERSONNES.type();
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> sources;
+    private final String mapping;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final long totalHits;
+
+    private final Map<Integer, byte[]> searchResponses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ScheduledExecutorService responders;
+
+    /**
+     * @param latencyMillis latence ajoutée à chaque réponse
+     * @param jitterMillis variation aléatoire maximale ajoutée à la latence
+     * @param totalHits nombre total de hits annoncé par les réponses de recherche
+     */
+    public FakeElasticSearch(long latencyMillis, long jitterMillis, long totalHits) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.totalHits = totalHits;
+        this.sources = sources();
+        this.mapping = mapping();
+
+        this.handlers = Executors.newFixedThreadPool(4, named("fake-es-handler"));
+        this.responders = Executors.newScheduledThreadPool(2, named("fake-es-responder"));
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        this.server.setExecutor(handlers);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+
+        log.info("Fake elasticsearch listening on {} (latency {}ms +/- {}ms)", url(), latencyMillis, jitterMillis);
+    }
+
+    /**
+     * @return l'url à utiliser comme hôte elasticsearch
+     */
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return le nombre de requêtes reçues, par route
+     */
+    public Map<String, Long> requests() {
+        Map<String, Long> counts = new ConcurrentHashMap<>();
+        requests.forEach((route, count) -> counts.put(route, count.get()));
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        responders.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            byte[] body = StreamUtils.copyToByteArray(exchange.getRequestBody());
+            Response response = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                    exchange.getRequestURI().getQuery(), body);
+
+            long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+            if (delay > 0) {
+                responders.schedule(() -> respond(exchange, response), delay, TimeUnit.MILLISECONDS);
+            } else {
+                respond(exchange, response);
+            }
+        } catch (Exception e) {
+            log.error("Fake elasticsearch failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            respond(exchange, new Response("error", 500, json("{\"error\":" + quote(e.toString()) + ",\"status\":500}")));
+        }
+    }
+
+    private Response route(String method, String path, String query, byte[] body) throws IOException {
+        String[] segments = path.replaceAll("^/+|/+$", "").split("/");
+        String last = segments[segments.length - 1];
+
+        if ("HEAD".equals(method) && segments.length == 1) {
+            return new Response("index.exists", 200, EMPTY);
+        }
+        if ("HEAD".equals(method) && "_alias".equals(segments[0])) {
+            return new Response("alias.exists", 200, EMPTY);
+        }
+        if ("PUT".equals(method) && segments.length == 1 && !segments[0].isEmpty()) {
+            return new Response("index.create", 200, json("{\"acknowledged\":true,\"shards_acknowledged\":true,"
+                    + "\"index\":\"" + segments[0] + "\"}"));
+        }
+        if (path.contains("/_mapping")) {
+            return new Response("index.mapping", 200, json("{\"" + INDEX + "\":{\"mappings\":" + mapping + "}}"));
+        }
+        if (path.equals("/_search/scroll")) {
+            return "DELETE".equals(method)
+                    ? new Response("scroll.clear", 200, json("{\"succeeded\":true,\"num_freed\":1}"))
+                    : new Response("scroll", 200, json(search(0, true)));
+        }
+        if ("_search".equals(last)) {
+            boolean scroll = query != null && query.contains("scroll=");
+            return new Response("search", 200, searchResponse(body, scroll));
+        }
+        if ("_msearch".equals(last)) {
+            return new Response("msearch", 200, msearchResponse(body));
+        }
+        if ("_mget".equals(last)) {
+            return new Response("mget", 200, mgetResponse(body));
+        }
+        if ("_bulk".equals(last)) {
+            return new Response("bulk", 200, bulkResponse(body));
+        }
+        if (segments.length == 3 && "GET".equals(method)) {
+            return new Response("get", 200, json(document(last)));
+        }
+        if (segments.length == 3 && ("PUT".equals(method) || "POST".equals(method))) {
+            return new Response("index", 201, json("{" + item(last, 1) + "}"));
+        }
+        if (segments.length == 1 && segments[0].isEmpty()) {
+            return new Response("info", 200, json("{\"name\":\"fake\",\"cluster_name\":\"fake\","
+                    + "\"version\":{\"number\":\"6.2.0\",\"lucene_version\":\"7.2.1\"},\"tagline\":\"You Know, for Search\"}"));
+        }
+        return new Response("unknown", 404, json("{\"error\":" + quote("no route for " + method + " " + path) + ",\"status\":404}"));
+    }
+
+    private void respond(HttpExchange exchange, Response response) {
+        requests.computeIfAbsent(response.route, r -> new AtomicLong()).incrementAndGet();
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response.body);
+            }
+        } catch (IOException e) {
+            log.debug("Fake elasticsearch failed to respond", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Les réponses de recherche ne dépendent que de la taille demandée: elles sont construites une fois par taille.
+     * Une requête de suggestion reçoit une réponse de suggestion.
+     */
+    private byte[] searchResponse(byte[] body, boolean scroll) throws IOException {
+        JsonNode request = body.length == 0 ? objectMapper.createObjectNode() : objectMapper.readTree(body);
+        if (request.has("suggest")) {
+            return json(suggest(request));
+        }
+        int size = request.path("size").asInt(10);
+        return scroll
+                ? json(search(size, true))
+                : searchResponses.computeIfAbsent(size, s -> json(search(s, false)));
+    }
+
+    private byte[] msearchResponse(byte[] body) throws IOException {
+        String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+        StringBuilder json = new StringBuilder("{\"took\":1,\"responses\":[");
+        for (int i = 1; i < lines.length; i += 2) {
+            String response = search(objectMapper.readTree(lines[i]).path("size").asInt(10), false);
+            json.append(i == 1 ? "" : ",").append(response, 0, response.length() - 1).append(",\"status\":200}");
+        }
+        return json(json.append("]}").toString());
+    }
+
+    private byte[] mgetResponse(byte[] body) throws IOException {
+        JsonNode request = objectMapper.readTree(body);
+        List<String> ids = new ArrayList<>();
+        request.path("docs").forEach(doc -> ids.add(doc.path("_id").asText()));
+        request.path("ids").forEach(id -> ids.add(id.asText()));
+
+        StringBuilder json = new StringBuilder("{\"docs\":[");
+        for (int i = 0; i < ids.size(); i++) {
+            json.append(i == 0 ? "" : ",").append(document(ids.get(i)));
+        }
+        return json(json.append("]}").toString());
+    }
+
+    /**
+     * Chaque action d'indexation du corps bulk est suivie de sa source: deux lignes par document.
+     */
+    private byte[] bulkResponse(byte[] body) {
+        String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+        StringBuilder json = new StringBuilder("{\"took\":").append(latencyMillis).append(",\"errors\":false,\"items\":[");
+        for (int i = 0; i + 1 < lines.length; i += 2) {
+            String id = "u" + i / 2;
+            try {
+                id = objectMapper.readTree(lines[i]).elements().next().path("_id").asText(id);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Unreadable bulk action {}", lines[i]);
+            }
+            json.append(i == 0 ? "" : ",").append("{\"index\":{").append(item(id, i / 2)).append("}}");
+        }
+        return json(json.append("]}").toString());
+    }
+
+    private String search(int size, boolean scroll) {
+        StringBuilder json = new StringBuilder("{\"took\":").append(latencyMillis).append(",\"timed_out\":false,");
+        if (scroll) {
+            json.append("\"_scroll_id\":\"fake-scroll\",");
+        }
+        json.append("\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0},")
+                .append("\"hits\":{\"total\":").append(scroll ? size : totalHits)
+                .append(",\"max_score\":").append(size).append(",\"hits\":[");
+
+        for (int i = 0; i < size; i++) {
+            String id = "u" + i;
+            float score = size - i;
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"_index\":\"").append(INDEX).append("\",\"_type\":\"").append(TYPE)
+                    .append("\",\"_id\":\"").append(id).append("\",\"_score\":").append(score)
+                    .append(",\"_source\":").append(source(i))
+                    .append(",\"sort\":[").append(score).append(",\"").append(id).append("\"]}");
+        }
+        return json.append("]}}").toString();
+    }
+
+    private String suggest(JsonNode request) {
+        JsonNode suggestion = request.path("suggest").elements().next();
+        String prefix = suggestion.path("prefix").asText();
+        int size = suggestion.path("completion").path("size").asInt(5);
+
+        StringBuilder json = new StringBuilder("{\"took\":").append(latencyMillis).append(",\"timed_out\":false,")
+                .append("\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0},")
+                .append("\"hits\":{\"total\":0,\"max_score\":0.0,\"hits\":[]},")
+                .append("\"suggest\":{\"completion#").append(request.path("suggest").fieldNames().next())
+                .append("\":[{\"text\":").append(quote(prefix)).append(",\"offset\":0,\"length\":")
+                .append(prefix.length()).append(",\"options\":[");
+
+        for (int i = 0; i < size; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"text\":").append(quote(prefix + i))
+                    .append(",\"_index\":\"").append(INDEX).append("\",\"_type\":\"").append(TYPE)
+                    .append("\",\"_id\":\"u").append(i).append("\",\"_score\":").append(size - i)
+                    .append(",\"_source\":").append(source(i)).append("}");
+        }
+        return json.append("]}]}}").toString();
+    }
+
+    private String document(String id) {
+        return "{\"_index\":\"" + INDEX + "\",\"_type\":\"" + TYPE + "\",\"_id\":" + quote(id)
+                + ",\"_version\":1,\"found\":true,\"_source\":" + source(id.hashCode() & Integer.MAX_VALUE) + "}";
+    }
+
+    private String item(String id, long seqNo) {
+        return "\"_index\":\"" + INDEX + "\",\"_type\":\"" + TYPE + "\",\"_id\":" + quote(id)
+                + ",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+                + "\"status\":201,\"_seq_no\":" + seqNo + ",\"_primary_term\":1";
+    }
+
+    private String source(int i) {
+        return sources.get(i % sources.size());
+    }
+
+    private String quote(String value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<String> sources() throws IOException {
+        try (InputStream in = new ClassPathResource("fake-es/personnes.json").getInputStream()) {
+            List<String> sources = new ArrayList<>();
+            objectMapper.readTree(in).forEach(node -> sources.add(node.toString()));
+            return sources;
+        }
+    }
+
+    private String mapping() throws IOException {
+        try (InputStream in = new ClassPathResource(ElasticSearchIndexes.PERSONNES.definition()).getInputStream()) {
+            return objectMapper.readTree(in).path("mappings").toString();
+        }
+    }
+
+    private static byte[] json(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ThreadFactory named(String prefix) {
+        AtomicLong counter = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Response {
+        private final String route;
+        private final int status;
+        private final byte[] body;
+
+        private Response(String route, int status, byte[] body) {
+            this.route = route;
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
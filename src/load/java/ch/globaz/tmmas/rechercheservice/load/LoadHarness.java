@@ -0,0 +1,219 @@
+package ch.globaz.tmmas.rechercheservice.load;
+
+import ch.globaz.tmmas.rechercheservice.application.RechercheServiceApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test de charge de bout en bout: démarre l'application contre un substitut local d'elasticsearch
+ * ({@link FakeElasticSearch}), sollicite les endpoints de {@code PersonneRouter} à un débit cible
+ * puis rapporte débit, percentiles de latence, threads et allocations.<br/>
+ * La charge est ouverte: les requêtes sont planifiées à intervalle fixe quel que soit le temps de réponse,
+ * celles qui ne peuvent être émises faute de place ({@code load.maxInFlight}) sont comptées comme non émises.<br/>
+ * Le processus se termine en erreur si un seuil de régression ({@code load.maxP99Millis},
+ * {@code load.minThroughput}, {@code load.maxErrorRate}) est dépassé.<br/>
+ * usage: {@code mvn -Pload test-compile exec:exec -Dload.jvmArgs="-Dload.rps=500 -Dload.maxP99Millis=50"}
+ */
+@Slf4j
+public final class LoadHarness {
+
+    private static final String[] SCENARIOS = {"get", "recherche", "resume", "composed", "suggest", "mget", "bulk"};
+    private static final int USERNAMES = 1000;
+    private static final int MGET_SIZE = 10;
+    private static final int BULK_SIZE = 10;
+
+    private final LoadSettings settings;
+    private final WebClient webClient;
+    private final String[] scenarios;
+    private final int[] weights;
+    private final List<String> termes = new ArrayList<>();
+    private final String bulkBody;
+
+    private LoadHarness(LoadSettings settings, String baseUrl) throws IOException {
+        this.settings = settings;
+        this.webClient = WebClient.create(baseUrl);
+        this.scenarios = settings.getMix().keySet().toArray(new String[0]);
+        this.weights = new int[scenarios.length];
+
+        int total = 0;
+        for (int i = 0; i < scenarios.length; i++) {
+            if (!Arrays.asList(SCENARIOS).contains(scenarios[i])) {
+                throw new IllegalArgumentException("Unknown scenario " + scenarios[i] + ", expected one of "
+                        + Arrays.toString(SCENARIOS));
+            }
+            total += settings.getMix().get(scenarios[i]);
+            weights[i] = total;
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode personnes;
+        try (InputStream in = new ClassPathResource("fake-es/personnes.json").getInputStream()) {
+            personnes = objectMapper.readTree(in);
+        }
+        ArrayNode bulk = objectMapper.createArrayNode();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            ObjectNode personne = personnes.get(i % personnes.size()).deepCopy();
+            bulk.add(personne.put("username", "load" + i));
+        }
+        for (JsonNode personne : personnes) {
+            termes.add(personne.path("nom").asText());
+            termes.add(personne.path("prenom").asText());
+            termes.add(personne.path("adresse").path("localite").asText());
+            termes.add(personne.path("adresse").path("npa").asText());
+        }
+        this.bulkBody = objectMapper.writeValueAsString(bulk);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        LoadReport report = new LoadReport();
+        Map<String, Long> esRequests;
+
+        try (FakeElasticSearch elasticSearch = new FakeElasticSearch(
+                settings.getEsLatencyMillis(), settings.getEsJitterMillis(), settings.getEsTotalHits())) {
+
+            //les traces par requête du service ne doivent pas dominer la mesure
+            ConfigurableApplicationContext application = new SpringApplicationBuilder(RechercheServiceApplication.class)
+                    .properties(
+                            "server.port=0",
+                            "elasticsearch.hosts[0]=" + elasticSearch.url(),
+                            "logging.level.ch.globaz.tmmas=WARN")
+                    .run(args);
+
+            try {
+                LoadHarness harness = new LoadHarness(settings,
+                        "http://localhost:" + application.getEnvironment().getProperty("local.server.port"));
+
+                log.warn("Warming up for {}s at {} rps", settings.getWarmupSeconds(), settings.getRps());
+                harness.run(Duration.ofSeconds(settings.getWarmupSeconds()), new LoadReport());
+
+                log.warn("Measuring for {}s at {} rps, mix {}", settings.getDurationSeconds(), settings.getRps(), settings.getMix());
+                report.start();
+                harness.run(Duration.ofSeconds(settings.getDurationSeconds()), report);
+                report.stop();
+                esRequests = elasticSearch.requests();
+            } finally {
+                application.close();
+            }
+        }
+
+        Map<String, Object> result = report.toMap(settings, esRequests);
+        ObjectMapper objectMapper = new ObjectMapper();
+        File file = new File(settings.getReport());
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, result);
+        log.warn("Load report ({}):\n{}", file.getAbsolutePath(),
+                objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(result));
+
+        List<String> violations = report.violations(settings);
+        if (!violations.isEmpty()) {
+            log.error("Load thresholds exceeded: {}", violations);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private void run(Duration duration, LoadReport report) {
+        Flux.interval(Duration.ofNanos(TimeUnit.SECONDS.toNanos(1) / settings.getRps()))
+                .take(duration)
+                .onBackpressureDrop(tick -> report.dropped())
+                .flatMap(tick -> timed(scenario(), report), settings.getMaxInFlight())
+                .blockLast();
+    }
+
+    private Mono<Integer> timed(String scenario, LoadReport report) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return request(scenario)
+                    .doOnNext(status -> report.record(scenario, status, System.nanoTime() - start))
+                    .onErrorResume(e -> {
+                        report.failed(scenario, e, System.nanoTime() - start);
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    private String scenario() {
+        int pick = ThreadLocalRandom.current().nextInt(weights[weights.length - 1]);
+        for (int i = 0; i < weights.length; i++) {
+            if (pick < weights[i]) {
+                return scenarios[i];
+            }
+        }
+        return scenarios[scenarios.length - 1];
+    }
+
+    private Mono<Integer> request(String scenario) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String terme = termes.get(random.nextInt(termes.size()));
+
+        switch (scenario) {
+            case "get":
+                return exchange(webClient.get().uri("/personnes/{userName}", username(random)));
+            case "recherche":
+                return exchange(webClient.get().uri("/personnes/recherche?terme={terme}&methode={methode}",
+                        terme, random.nextBoolean() ? "fuzzy" : "wildcards"));
+            case "resume":
+                return exchange(webClient.get().uri("/personnes/recherche?terme={terme}&methode={methode}&fields=resume",
+                        terme, random.nextBoolean() ? "fuzzy" : "wildcards"));
+            case "composed":
+                return exchange(webClient.get().uri("/personnes/recherche?terme={terme}&methode=composed", terme));
+            case "suggest":
+                return exchange(webClient.get().uri("/personnes/suggest?prefix={prefix}",
+                        terme.substring(0, Math.min(3, terme.length()))));
+            case "mget":
+                List<String> userNames = new ArrayList<>(MGET_SIZE);
+                for (int i = 0; i < MGET_SIZE; i++) {
+                    userNames.add(username(random));
+                }
+                return exchange(webClient.post().uri("/personnes/_mget")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .syncBody(userNames));
+            case "bulk":
+                return exchange(webClient.put().uri("/personnes/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .syncBody(bulkBody));
+            default:
+                return Mono.error(new IllegalArgumentException("Unknown scenario " + scenario));
+        }
+    }
+
+    /**
+     * La latence mesurée inclut la lecture complète du corps de la réponse
+     */
+    private static Mono<Integer> exchange(WebClient.RequestHeadersSpec<?> request) {
+        return request.exchange()
+                .flatMap(response -> response.bodyToFlux(DataBuffer.class)
+                        .doOnNext(DataBufferUtils::release)
+                        .then(Mono.just(response.statusCode().value())));
+    }
+
+    private static String username(ThreadLocalRandom random) {
+        return "u" + random.nextInt(USERNAMES);
+    }
+}
@@ -0,0 +1,234 @@
+package ch.globaz.tmmas.rechercheservice.load;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mesures d'une période de charge: latences par scénario, erreurs, requêtes non émises,
+ * threads et allocations de la JVM.<br/>
+ * L'application, le substitut elasticsearch et le générateur de charge partagent la JVM:
+ * les threads et les allocations sont ceux du processus entier.
+ */
+class LoadReport {
+
+    static final String ALL = "all";
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private long startNanos;
+    private long elapsedNanos;
+    private long allocatedBytes;
+    private long gcCount;
+    private long gcMillis;
+    private Map<String, Integer> threadPools = new TreeMap<>();
+    private int liveThreads;
+    private int peakThreads;
+    private int daemonThreads;
+
+    void start() {
+        threads.resetPeakThreadCount();
+        allocatedBytes = -allocatedBytes();
+        gcCount = -gcCount();
+        gcMillis = -gcMillis();
+        startNanos = System.nanoTime();
+    }
+
+    void stop() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        allocatedBytes += allocatedBytes();
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+        liveThreads = threads.getThreadCount();
+        peakThreads = threads.getPeakThreadCount();
+        daemonThreads = threads.getDaemonThreadCount();
+        threadPools = threadPools();
+    }
+
+    void record(String scenario, int status, long nanos) {
+        timer(scenario).record(nanos, TimeUnit.NANOSECONDS);
+        timer(ALL).record(nanos, TimeUnit.NANOSECONDS);
+        if (status >= 400) {
+            error(scenario + ":" + status);
+        }
+    }
+
+    void failed(String scenario, Throwable error, long nanos) {
+        timer(scenario).record(nanos, TimeUnit.NANOSECONDS);
+        timer(ALL).record(nanos, TimeUnit.NANOSECONDS);
+        error(scenario + ":" + error.getClass().getSimpleName());
+    }
+
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    long completed() {
+        return timer(ALL).count();
+    }
+
+    double throughput() {
+        return elapsedNanos == 0 ? 0 : completed() / (elapsedNanos / 1e9);
+    }
+
+    double errorRate() {
+        long completed = completed();
+        return completed == 0 ? 0 : errors.values().stream().mapToLong(LongAdder::sum).sum() / (double) completed;
+    }
+
+    double p99Millis() {
+        return percentileMillis(timer(ALL).takeSnapshot(false), 0.99);
+    }
+
+    /**
+     * @return les seuils de régression dépassés
+     */
+    List<String> violations(LoadSettings settings) {
+        List<String> violations = new ArrayList<>();
+        if (settings.getMaxP99Millis() >= 0 && p99Millis() > settings.getMaxP99Millis()) {
+            violations.add(String.format("p99 %.2fms > %.2fms", p99Millis(), settings.getMaxP99Millis()));
+        }
+        if (settings.getMinThroughput() >= 0 && throughput() < settings.getMinThroughput()) {
+            violations.add(String.format("throughput %.1f/s < %.1f/s", throughput(), settings.getMinThroughput()));
+        }
+        if (settings.getMaxErrorRate() >= 0 && errorRate() > settings.getMaxErrorRate()) {
+            violations.add(String.format("error rate %.4f > %.4f", errorRate(), settings.getMaxErrorRate()));
+        }
+        return violations;
+    }
+
+    Map<String, Object> toMap(LoadSettings settings, Map<String, Long> esRequests) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("elapsedSeconds", elapsedNanos / 1e9);
+        report.put("completed", completed());
+        report.put("dropped", dropped.get());
+        report.put("throughput", throughput());
+        report.put("cores", Runtime.getRuntime().availableProcessors());
+        report.put("throughputPerCore", throughput() / Runtime.getRuntime().availableProcessors());
+        report.put("errorRate", errorRate());
+        report.put("errors", counts(errors));
+
+        Map<String, Object> latencies = new TreeMap<>();
+        timers.forEach((scenario, timer) -> latencies.put(scenario, latency(timer.takeSnapshot(false))));
+        report.put("latencyMillis", latencies);
+
+        Map<String, Object> threadCounts = new LinkedHashMap<>();
+        threadCounts.put("live", liveThreads);
+        threadCounts.put("peak", peakThreads);
+        threadCounts.put("daemon", daemonThreads);
+        threadCounts.put("pools", threadPools);
+        report.put("threads", threadCounts);
+
+        Map<String, Object> allocation = new LinkedHashMap<>();
+        allocation.put("bytes", allocatedBytes);
+        allocation.put("bytesPerRequest", completed() == 0 ? 0 : allocatedBytes / completed());
+        allocation.put("gcCount", gcCount);
+        allocation.put("gcMillis", gcMillis);
+        report.put("allocation", allocation);
+
+        report.put("elasticsearchRequests", new TreeMap<>(esRequests));
+        return report;
+    }
+
+    private Map<String, Object> latency(HistogramSnapshot snapshot) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", snapshot.count());
+        latency.put("mean", snapshot.mean(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            latency.put("p" + String.valueOf(percentile.percentile() * 100).replaceAll("\\.0$", ""),
+                    percentile.value(TimeUnit.MILLISECONDS));
+        }
+        latency.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+        return latency;
+    }
+
+    private static double percentileMillis(HistogramSnapshot snapshot, double percentile) {
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            if (value.percentile() == percentile) {
+                return value.value(TimeUnit.MILLISECONDS);
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Les percentiles ne doivent pas décroître pendant la mesure: la fenêtre de calcul couvre toute la période.
+     */
+    private Timer timer(String scenario) {
+        return timers.computeIfAbsent(scenario, s -> Timer.builder("load.latency")
+                .tag("scenario", s)
+                .publishPercentiles(PERCENTILES)
+                .percentilePrecision(2)
+                .distributionStatisticExpiry(Duration.ofDays(1))
+                .distributionStatisticBufferLength(1)
+                .register(registry));
+    }
+
+    private void error(String key) {
+        errors.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    private static Map<String, Long> counts(Map<String, LongAdder> adders) {
+        Map<String, Long> counts = new TreeMap<>();
+        adders.forEach((key, adder) -> counts.put(key, adder.sum()));
+        return counts;
+    }
+
+    /**
+     * Threads vivants regroupés par pool, le nom du pool étant le nom du thread sans son numéro
+     */
+    private static Map<String, Integer> threadPools() {
+        Map<String, Integer> pools = new TreeMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            pools.merge(thread.getName().replaceAll("[-#_ ]*\\d+$", ""), 1, Integer::sum);
+        }
+        return pools;
+    }
+
+    /**
+     * Somme des octets alloués par les threads vivants: les threads terminés pendant la mesure ne sont pas comptés
+     */
+    private long allocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(allocated, 0);
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+}
@@ -0,0 +1,69 @@
+package ch.globaz.tmmas.rechercheservice.load;
+
+import lombok.Value;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Paramètres du test de charge, lus dans les propriétés système {@code load.*}.<br/>
+ * Les propriétés {@code elasticsearch.*} sont transmises telles quelles à l'application
+ * (ex: {@code -Delasticsearch.mgetBatching.enabled=true}).
+ */
+@Value
+class LoadSettings {
+
+    /** requêtes par seconde visées */
+    int rps;
+    /** durée de la mesure, en secondes */
+    int durationSeconds;
+    /** durée de chauffe non mesurée, en secondes */
+    int warmupSeconds;
+    /** requêtes en cours au maximum, au-delà les requêtes planifiées sont comptées comme non émises */
+    int maxInFlight;
+    /** répartition des scénarios, ex: {@code get:40,recherche:40,suggest:10,mget:5,bulk:5} */
+    Map<String, Integer> mix;
+
+    /** latence du substitut elasticsearch, en millisecondes */
+    long esLatencyMillis;
+    /** variation maximale de la latence du substitut, en millisecondes */
+    long esJitterMillis;
+    /** nombre total de hits annoncé par le substitut */
+    long esTotalHits;
+
+    /** seuils de régression, ignorés lorsqu'ils sont négatifs */
+    double maxP99Millis;
+    double minThroughput;
+    double maxErrorRate;
+
+    /** fichier du rapport JSON */
+    String report;
+
+    static LoadSettings fromSystemProperties() {
+        return new LoadSettings(
+                Integer.getInteger("load.rps", 200),
+                Integer.getInteger("load.durationSeconds", 30),
+                Integer.getInteger("load.warmupSeconds", 10),
+                Integer.getInteger("load.maxInFlight", 256),
+                mix(System.getProperty("load.mix", "get:40,recherche:40,suggest:10,mget:5,bulk:5")),
+                Long.getLong("load.es.latencyMillis", 5),
+                Long.getLong("load.es.jitterMillis", 2),
+                Long.getLong("load.es.totalHits", 1000),
+                Double.parseDouble(System.getProperty("load.maxP99Millis", "-1")),
+                Double.parseDouble(System.getProperty("load.minThroughput", "-1")),
+                Double.parseDouble(System.getProperty("load.maxErrorRate", "0.01")),
+                System.getProperty("load.report", "target/load-report.json"));
+    }
+
+    private static Map<String, Integer> mix(String value) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            String[] weight = entry.trim().split(":");
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("Invalid load.mix entry: " + entry);
+            }
+            mix.put(weight[0], Integer.valueOf(weight[1]));
+        }
+        return mix;
+    }
+}
@@ -0,0 +1,17 @@
+package ch.globaz.tmmas.rechercheservice.application.api.web;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Types de contenu exposés par l'api en plus de ceux fournis par Spring
+ */
+public final class ApiMediaTypes {
+
+    /** JSON délimité par des retours à la ligne, un document par ligne */
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    private ApiMediaTypes() {
+    }
+}
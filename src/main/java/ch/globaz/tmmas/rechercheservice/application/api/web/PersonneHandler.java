@@ -0,0 +1,371 @@
+package ch.globaz.tmmas.rechercheservice.application.api.web;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes;
+import ch.globaz.tmmas.rechercheservice.domaine.Page;
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import ch.globaz.tmmas.rechercheservice.domaine.Suggestion;
+import ch.globaz.tmmas.rechercheservice.infrastructure.BulkLoadSessions;
+import ch.globaz.tmmas.rechercheservice.infrastructure.ElasticSearchClient;
+import ch.globaz.tmmas.rechercheservice.infrastructure.ElasticSearchOverloadedException;
+import ch.globaz.tmmas.rechercheservice.infrastructure.IndexReindexer;
+import com.google.common.collect.ImmutableMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Endpoints fonctionnels de la ressource personnes, voir {@link PersonneRouter} pour les routes.<br/>
+ * Les corps sont lus et écrits par les codecs non bloquants configurés avec l'{@code ObjectMapper} de l'application,
+ * et chaque {@link Personne} reçue est validée avant d'être indexée (400 si invalide).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PersonneHandler {
+
+    static final String TOTAL_HITS_HEADER = "X-Total-Hits";
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final ParameterizedTypeReference<List<Personne>> PERSONNES =
+            new ParameterizedTypeReference<List<Personne>>() {};
+    private static final ParameterizedTypeReference<List<String>> USERNAMES =
+            new ParameterizedTypeReference<List<String>>() {};
+    private static final ParameterizedTypeReference<Map<String, Object>> BATCH =
+            new ParameterizedTypeReference<Map<String, Object>>() {};
+
+    private final ElasticSearchClient elasticAdapter;
+    private final BulkLoadSessions loadSessions;
+    private final IndexReindexer reindexer;
+    private final Validator validator;
+
+    Mono<ServerResponse> put(ServerRequest request) {
+        return request
+                .bodyToMono(Personne.class)
+                .map(this::validate)
+                .flatMap(elasticAdapter::index)
+                .flatMap(response -> created(toMap(response)));
+    }
+
+    Mono<ServerResponse> bulkPut(ServerRequest request) {
+        return request
+                .bodyToMono(PERSONNES)
+                .map(personnes -> personnes.stream().map(this::validate).collect(Collectors.toList()))
+                .flatMap(elasticAdapter::bulkIndex)
+                .flatMap(response -> created(toMap(response)));
+    }
+
+    /**
+     * Indexation en flux: le corps ndjson est consommé document par document et indexé par lots,
+     * le résultat de chaque lot est renvoyé dès sa réception.
+     */
+    Mono<ServerResponse> bulkPutStream(ServerRequest request) {
+        Flux<Map<String, Object>> batches = elasticAdapter
+                .bulkIndex(request.bodyToFlux(Personne.class).map(this::validate))
+                .map(this::toBatchMap);
+
+        return ServerResponse.ok()
+                .contentType(ApiMediaTypes.APPLICATION_NDJSON)
+                .body(batches, BATCH);
+    }
+
+    /**
+     * Début d'un chargement massif: refresh et réplicas de l'index suspendus jusqu'à {@link #loadFinish}
+     * ou l'échéance de la session ({@code timeoutSeconds}). 409 si une session est déjà en cours.
+     */
+    Mono<ServerResponse> loadStart(ServerRequest request) {
+        Integer timeoutSeconds = integer(request, "timeoutSeconds");
+
+        return loadSessions
+                .start(ElasticSearchIndexes.PERSONNES, timeoutSeconds == null ? null : Duration.ofSeconds(timeoutSeconds))
+                .onErrorMap(IllegalStateException.class, this::conflict)
+                .flatMap(session -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(session));
+    }
+
+    /**
+     * Fin d'un chargement massif: settings restaurés, index rafraîchi puis fusionné en {@code maxSegments}
+     * segments si précisé. 409 si aucune session n'est en cours.
+     */
+    Mono<ServerResponse> loadFinish(ServerRequest request) {
+        return loadSessions
+                .finish(ElasticSearchIndexes.PERSONNES, integer(request, "maxSegments"))
+                .onErrorMap(IllegalStateException.class, this::conflict)
+                .flatMap(session -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(session));
+    }
+
+    Mono<ServerResponse> loadStatus(ServerRequest request) {
+        return loadSessions
+                .find(ElasticSearchIndexes.PERSONNES.index())
+                .flatMap(session -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(session))
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
+
+    /**
+     * Reindex vers une nouvelle version de l'index, selon la définition courante; poursuivi en arrière-plan.
+     * 409 si un reindex ou une session de chargement est en cours.
+     */
+    Mono<ServerResponse> reindex(ServerRequest request) {
+        return reindexer
+                .start(ElasticSearchIndexes.PERSONNES)
+                .onErrorMap(IllegalStateException.class, this::conflict)
+                .flatMap(status -> ServerResponse.accepted().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(status));
+    }
+
+    Mono<ServerResponse> reindexStatus(ServerRequest request) {
+        return reindexer
+                .status()
+                .flatMap(status -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(status))
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
+
+    /**
+     * Lecture de plusieurs documents par username en une seule requête
+     */
+    Mono<ServerResponse> mget(ServerRequest request) {
+        return request
+                .bodyToMono(USERNAMES)
+                .flatMap(userNames -> json(elasticAdapter.findByUserNames(userNames)));
+    }
+
+    Mono<ServerResponse> mgetByParam(ServerRequest request) {
+        return json(elasticAdapter.findByUserNames(list(request, "usernames")));
+    }
+
+    /**
+     * Lecture d'un document, complet ou projeté selon le paramètre {@code fields}
+     * ({@code fields=resume} ou une liste de champs, ex: {@code fields=nom,prenom,adresse.localite})
+     */
+    Mono<ServerResponse> get(ServerRequest request) {
+        String userName = request.pathVariable("userName");
+        List<String> fields = list(request, "fields");
+
+        Mono<?> document;
+        if (fields.isEmpty()) {
+            document = elasticAdapter.findByUserName(userName);
+        } else {
+            document = elasticAdapter.findByUserName(userName, elasticAdapter.projection(fields));
+        }
+
+        return document
+                .flatMap(personne -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(personne))
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
+
+    /**
+     * Recherche paginée: le corps contient la page de résultats, le nombre total de hits et le curseur
+     * de la page suivante sont renvoyés dans les en-têtes {@code X-Total-Hits} et {@code X-Next-Cursor}.
+     * Le paramètre {@code fields} restreint les champs des résultats, comme pour la lecture d'un document.
+     * Une méthode inconnue, une taille hors limites ou un curseur invalide sont répondus 400.
+     */
+    Mono<ServerResponse> recherche(ServerRequest request) {
+        String terme = required(request, "terme");
+        String methode = required(request, "methode");
+        Integer size = integer(request, "size");
+        String cursor = request.queryParam("cursor").orElse(null);
+        List<String> fields = list(request, "fields");
+
+        log.info("Search with methode: {}, terme: {} and fields: {}", methode, terme, fields);
+
+        Mono<? extends Page<?>> page = Mono.defer(() -> fields.isEmpty()
+                ? elasticAdapter.recherche(methode, terme, size, cursor)
+                : elasticAdapter.recherche(methode, terme, size, cursor, elasticAdapter.projection(fields)));
+
+        return page
+                .onErrorMap(IllegalArgumentException.class, this::badRequest)
+                .flatMap(this::toResponse);
+    }
+
+    /**
+     * Suggestions de saisie pour la recherche (type-ahead)
+     */
+    Mono<ServerResponse> suggest(ServerRequest request) {
+        Mono<List<Suggestion>> suggestions = elasticAdapter.suggest(
+                required(request, "prefix"),
+                Boolean.parseBoolean(request.queryParam("fuzzy").orElse("false")),
+                integer(request, "size"));
+
+        return suggestions.flatMap(list -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(list));
+    }
+
+    /**
+     * Export de tous les documents correspondants, en ndjson ou en server-sent events selon l'en-tête {@code Accept}.
+     * Une méthode inconnue est répondue 400, avant l'envoi du statut du flux.
+     */
+    Mono<ServerResponse> export(ServerRequest request) {
+        String terme = request.queryParam("terme").orElse(null);
+        String methode = request.queryParam("methode").orElse("fuzzy");
+
+        log.info("Export with methode: {} and terme: {}", methode, terme);
+
+        MediaType mediaType = request.headers().accept().stream().anyMatch(MediaType.TEXT_EVENT_STREAM::isCompatibleWith)
+                ? MediaType.TEXT_EVENT_STREAM
+                : ApiMediaTypes.APPLICATION_NDJSON;
+
+        return Mono.fromCallable(() -> elasticAdapter.export(methode, terme))
+                .onErrorMap(IllegalArgumentException.class, this::badRequest)
+                .flatMap(personnes -> ServerResponse.ok()
+                        .contentType(mediaType)
+                        .body(personnes, Personne.class));
+    }
+
+    /**
+     * Délestage: un appel refusé par le limiteur de concurrence d'elasticsearch est répondu immédiatement,
+     * 429 si la file d'attente est pleine, 503 si l'attente a été dépassée, avec l'en-tête {@code Retry-After}
+     */
+    Mono<ServerResponse> shedding(ServerRequest request, HandlerFunction<ServerResponse> next) {
+        return next.handle(request)
+                .onErrorResume(ElasticSearchOverloadedException.class, e -> ServerResponse
+                        .status(e.getReason() == ElasticSearchOverloadedException.Reason.REJECTED
+                                ? HttpStatus.TOO_MANY_REQUESTS
+                                : HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                        .contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .syncBody(ImmutableMap.of("error", e.getMessage())));
+    }
+
+    /**
+     * Validation d'une personne reçue, équivalente à {@code @Valid} sur un corps de requête
+     * @throws ServerWebInputException si la personne est invalide
+     */
+    private Personne validate(Personne personne) {
+        Set<ConstraintViolation<Personne>> violations = validator.validate(personne);
+
+        if (!violations.isEmpty()) {
+            throw new ServerWebInputException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", ", "Invalid personne " + personne.getUsername() + ": ", "")));
+        }
+        return personne;
+    }
+
+    private ServerWebInputException badRequest(IllegalArgumentException e) {
+        return new ServerWebInputException(e.getMessage(), null, e);
+    }
+
+    private ResponseStatusException conflict(IllegalStateException e) {
+        return new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e);
+    }
+
+    private static String required(ServerRequest request, String name) {
+        return request.queryParam(name)
+                .orElseThrow(() -> new ServerWebInputException("Required String parameter '" + name + "' is not present"));
+    }
+
+    /**
+     * @return les valeurs d'un paramètre répété ou séparées par des virgules
+     */
+    private static List<String> list(ServerRequest request, String name) {
+        return request.queryParams().getOrDefault(name, Collections.emptyList()).stream()
+                .flatMap(value -> Arrays.stream(StringUtils.commaDelimitedListToStringArray(value)))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static Integer integer(ServerRequest request, String name) {
+        try {
+            return request.queryParam(name).map(Integer::valueOf).orElse(null);
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Invalid Integer parameter '" + name + "'");
+        }
+    }
+
+    private static Mono<ServerResponse> json(Flux<Personne> personnes) {
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(personnes, Personne.class);
+    }
+
+    private static Mono<ServerResponse> created(Map<String, Object> body) {
+        return ServerResponse.status(HttpStatus.CREATED).contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(body);
+    }
+
+    private Mono<ServerResponse> toResponse(Page<?> page) {
+        ServerResponse.BodyBuilder builder = ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(TOTAL_HITS_HEADER, String.valueOf(page.getTotal()));
+
+        if (page.getCursor() != null) {
+            builder.header(NEXT_CURSOR_HEADER, page.getCursor());
+        }
+        return builder.syncBody(page.getItems());
+    }
+
+    private ImmutableMap<String, Object> toMap(IndexResponse response) {
+        return ImmutableMap
+                .<String, Object>builder()
+                .put("id", response.getId())
+                .put("index", response.getIndex())
+                .put("type", response.getType())
+                .put("version", response.getVersion())
+                .put("result", response.getResult().getLowercase())
+                .put("seqNo", response.getSeqNo())
+                .put("primaryTerm", response.getPrimaryTerm())
+                .build();
+    }
+
+    /**
+     * Résultat de chaque document, dans l'ordre de la requête
+     */
+    private ImmutableMap<String, Object> toMap(BulkResponse response) {
+        return ImmutableMap
+                .<String, Object>builder()
+                .put("items", Arrays.stream(response.getItems()).map(this::toMap).collect(Collectors.toList()))
+                .put("errors", response.hasFailures())
+                .put("took", response.getTook().getMillis())
+                .build();
+    }
+
+    /**
+     * Seuls les documents en échec sont détaillés
+     */
+    private Map<String, Object> toBatchMap(BulkResponse response) {
+        return ImmutableMap
+                .<String, Object>builder()
+                .put("items", response.getItems().length)
+                .put("errors", response.hasFailures())
+                .put("failures", Arrays.stream(response.getItems())
+                        .filter(BulkItemResponse::isFailed)
+                        .map(this::toMap)
+                        .collect(Collectors.toList()))
+                .put("took", response.getTook().getMillis())
+                .build();
+    }
+
+    private ImmutableMap<String, Object> toMap(BulkItemResponse item) {
+        ImmutableMap.Builder<String, Object> builder = ImmutableMap
+                .<String, Object>builder()
+                .put("id", item.getId())
+                .put("status", item.status().getStatus());
+
+        if (item.isFailed()) {
+            builder.put("error", item.getFailureMessage());
+        } else {
+            builder.put("result", item.getResponse().getResult().getLowercase());
+        }
+        return builder.build();
+    }
+}
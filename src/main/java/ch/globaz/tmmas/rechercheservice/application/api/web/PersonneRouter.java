@@ -0,0 +1,43 @@
+package ch.globaz.tmmas.rechercheservice.application.api.web;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RequestPredicates.PUT;
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * Routes de la ressource personnes, servies par WebFlux sur Netty.<br/>
+ * Les routes sont évaluées dans l'ordre: les chemins fixes précèdent {@code /{userName}}.
+ * Les appels refusés par les limites de concurrence d'elasticsearch sont délestés (429/503).
+ */
+@Configuration
+class PersonneRouter {
+
+    private static final String PERSONNES = "/personnes";
+
+    @Bean
+    RouterFunction<ServerResponse> personneRoutes(PersonneHandler handler) {
+        return route(PUT(PERSONNES + "/bulk").and(contentType(ApiMediaTypes.APPLICATION_NDJSON)), handler::bulkPutStream)
+                .andRoute(PUT(PERSONNES + "/bulk"), handler::bulkPut)
+                .andRoute(PUT(PERSONNES), handler::put)
+                .andRoute(POST(PERSONNES + "/_mget"), handler::mget)
+                .andRoute(POST(PERSONNES + "/_load/start"), handler::loadStart)
+                .andRoute(POST(PERSONNES + "/_load/finish"), handler::loadFinish)
+                .andRoute(GET(PERSONNES + "/_load"), handler::loadStatus)
+                .andRoute(POST(PERSONNES + "/_reindex"), handler::reindex)
+                .andRoute(GET(PERSONNES + "/_reindex"), handler::reindexStatus)
+                .andRoute(GET(PERSONNES + "/recherche"), handler::recherche)
+                .andRoute(GET(PERSONNES + "/suggest"), handler::suggest)
+                .andRoute(GET(PERSONNES + "/export"), handler::export)
+                .andRoute(GET(PERSONNES).and(queryParam("usernames", usernames -> true)), handler::mgetByParam)
+                .andRoute(GET(PERSONNES + "/{userName}"), handler::get)
+                .filter(handler::shedding);
+    }
+}
@@ -1,15 +1,31 @@
 package ch.globaz.tmmas.rechercheservice.application.configuration;
 
+import ch.globaz.tmmas.rechercheservice.application.api.web.ApiMediaTypes;
+import ch.globaz.tmmas.rechercheservice.infrastructure.NodeRouter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
 import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Classe de configuration principale de l'application
@@ -26,27 +42,105 @@ class ApplicationConfiguration {
         return objectMapper;
     }
 
+    /**
+     * Codecs JSON basés sur l'{@code ObjectMapper} de l'application, étendus au format ndjson.
+     * Un corps ndjson est décodé élément par élément lorsqu'il est lié à un {@code Flux},
+     * et un {@code Flux} retourné en ndjson est écrit document par document.
+     * @param objectMapper le mapper de l'application
+     * @return une instance de {@code CodecCustomizer}
+     */
+    @Bean
+    CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+        MimeType[] mimeTypes = {
+                MediaType.APPLICATION_JSON,
+                new MimeType("application", "*+json"),
+                MediaType.APPLICATION_STREAM_JSON,
+                ApiMediaTypes.APPLICATION_NDJSON
+        };
+
+        Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper, mimeTypes);
+        encoder.setStreamingMediaTypes(Arrays.asList(MediaType.APPLICATION_STREAM_JSON, ApiMediaTypes.APPLICATION_NDJSON));
+
+        return configurer -> {
+            configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper, mimeTypes));
+            configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+        };
+    }
+
     /**
      * Client REST pour ElasticSearch haut niveau.
      * Voir <a href="https://www.elastic.co/blog/the-elasticsearch-java-high-level-rest-client-is-out">
      *     RestHighLevelClient doc</a><br/>
      * Gère en interne un pool de thread pour les clients bas niveau.
+     * Le pool de connexions et les threads IO sont dimensionnés par {@code elasticsearch.transport}.
      * @param props
      * @return une instance de
      */
     @Bean
     RestHighLevelClient restHighLevelClient(ElasticSearchProperties props) {
+        return highLevelClient(props, props.hosts());
+    }
+
+    /**
+     * Clients par noeud du routage des lectures, le client principal restant utilisé pour les écritures.
+     * Chaque client a ses propres threads IO et son propre pool de connexions.
+     * @param props
+     * @return une instance de {@code NodeRouter}
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty("elasticsearch.routing.enabled")
+    NodeRouter nodeRouter(ElasticSearchProperties props) {
+        Map<HttpHost, RestHighLevelClient> clients = new LinkedHashMap<>();
+        for (HttpHost host : props.hosts()) {
+            clients.put(host, highLevelClient(props, host));
+        }
+        return new NodeRouter(clients, props.getRouting());
+    }
+
+    private static RestHighLevelClient highLevelClient(ElasticSearchProperties props, HttpHost... hosts) {
+        ElasticSearchProperties.Transport transport = props.getTransport();
+
         return new RestHighLevelClient(
                 RestClient
-                        .builder(props.hosts())
+                        .builder(hosts)
                         .setRequestConfigCallback(config -> config
                                 .setConnectTimeout(props.getConnectTimeout())
                                 .setConnectionRequestTimeout(props.getConnectionRequestTimeout())
                                 .setSocketTimeout(props.getSocketTimeout())
                         )
+                        .setHttpClientConfigCallback(httpClient -> httpClientConfig(httpClient, transport))
                         .setMaxRetryTimeoutMillis(props.getMaxRetryTimeoutMillis()));
     }
 
+    private static HttpAsyncClientBuilder httpClientConfig(HttpAsyncClientBuilder httpClient,
+                                                           ElasticSearchProperties.Transport transport) {
+        IOReactorConfig.Builder ioReactor = IOReactorConfig.custom().setSoKeepAlive(transport.isSoKeepAlive());
+        if (transport.getIoThreadCount() > 0) {
+            ioReactor.setIoThreadCount(transport.getIoThreadCount());
+        }
+
+        httpClient
+                .setMaxConnPerRoute(transport.getMaxConnectionsPerRoute())
+                .setMaxConnTotal(transport.getMaxConnectionsTotal())
+                .setDefaultIOReactorConfig(ioReactor.build());
+
+        if (transport.getKeepAliveMillis() > 0) {
+            httpClient.setKeepAliveStrategy(keepAliveStrategy(transport.getKeepAliveMillis()));
+        }
+        return httpClient;
+    }
+
+    /**
+     * Elasticsearch n'annonce pas de durée de keep-alive: sans borne, une connexion inactive peut être réutilisée
+     * après avoir été fermée par un intermédiaire
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long keepAliveMillis) {
+        return (response, context) -> {
+            long announced = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return announced > 0 ? Math.min(announced, keepAliveMillis) : keepAliveMillis;
+        };
+    }
+
 
     @Bean
     @ConditionalOnProperty(value = "spring.metrics.binders.jvmthreads.enabled", matchIfMissing = true)
@@ -2,16 +2,21 @@ package ch.globaz.tmmas.rechercheservice.application.configuration;
 
 public enum ElasticSearchIndexes {
 
-	PERSONNES("personne","personne");
+	PERSONNES("personne","personne","elasticsearch/personne.json");
 
 	String index;
 	String type;
+	String definition;
 
-	ElasticSearchIndexes(String index, String type){
+	ElasticSearchIndexes(String index, String type, String definition){
 		this.index = index;
 		this.type = type;
+		this.definition = definition;
 	}
 
+	/**
+	 * @return le nom de l'alias de l'index, désignant sa version courante ({@code <alias>_<horodatage>})
+	 */
 	public String index(){
 		return this.index;
 	}
@@ -19,4 +24,11 @@ public enum ElasticSearchIndexes {
 	public String type(){
 		return this.type;
 	}
+
+	/**
+	 * @return le chemin classpath de la définition (settings et mappings) de l'index
+	 */
+	public String definition(){
+		return this.definition;
+	}
 }
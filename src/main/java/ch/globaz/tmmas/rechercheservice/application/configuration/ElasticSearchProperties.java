@@ -1,11 +1,16 @@
 package ch.globaz.tmmas.rechercheservice.application.configuration;
 
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.apache.http.HttpHost;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Component
 @ConfigurationProperties(prefix = "elasticsearch")
@@ -17,6 +22,24 @@ public class ElasticSearchProperties {
     private int connectionRequestTimeout;
     private int socketTimeout;
     private int maxRetryTimeoutMillis;
+    /** partage des lectures identiques en vol (get et search) */
+    private boolean singleFlight = true;
+    private Transport transport = new Transport();
+    private Decode decode = new Decode();
+    private Limits limits = new Limits();
+    private Routing routing = new Routing();
+    private Bulk bulk = new Bulk();
+    private Coalescing coalescing = new Coalescing();
+    private MgetBatching mgetBatching = new MgetBatching();
+    private Export export = new Export();
+    private Search search = new Search();
+    private Map<String, Query> queries = new LinkedHashMap<>();
+    private Composed composed = new Composed();
+    private Cache cache = new Cache();
+    private Exact exact = new Exact();
+    private Source source = new Source();
+    private Load load = new Load();
+    private Reindex reindex = new Reindex();
 
     HttpHost[] hosts() {
         return hosts
@@ -24,4 +47,300 @@ public class ElasticSearchProperties {
                 .map(HttpHost::create)
                 .toArray(HttpHost[]::new);
     }
+
+    /**
+     * Pool de connexions et IO du client http asynchrone
+     */
+    @Data
+    public static class Transport {
+
+        /** nombre maximal de connexions par noeud */
+        private int maxConnectionsPerRoute = 50;
+        /** nombre maximal de connexions, tous noeuds confondus */
+        private int maxConnectionsTotal = 200;
+        /** nombre de threads IO du client, nombre de processeurs si 0 */
+        private int ioThreadCount = 0;
+        /** durée maximale (ms) de réutilisation d'une connexion inactive, sans limite si 0 */
+        private long keepAliveMillis = 60000;
+        /** active le keep-alive TCP des connexions */
+        private boolean soKeepAlive = true;
+    }
+
+    /**
+     * Décodage des réponses hors des threads IO du client
+     */
+    @Data
+    public static class Decode {
+
+        /** nombre de threads du scheduler de décodage, nombre de processeurs si 0 */
+        private int threads = 0;
+    }
+
+    /**
+     * Limites adaptatives de concurrence des appels elasticsearch, séparées pour les lectures et les écritures
+     */
+    @Data
+    public static class Limits {
+
+        private Limit reads = new Limit(20, 200, 100, 500, 1);
+        private Limit writes = new Limit(4, 32, 50, 2000, 2);
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class Limit {
+
+        /** active la limitation, les appels sont sinon envoyés sans limite */
+        private boolean enabled = true;
+        /** nombre d'appels en vol au démarrage */
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        /** nombre d'appels en attente d'une place, au-delà les appels sont rejetés (429) */
+        private int maxQueue = 100;
+        /** attente maximale (ms) d'une place, au-delà l'appel est refusé (503) */
+        private long maxWaitMillis = 500;
+        /** hausse de latence tolérée avant de réduire la limite (1.5: 50% au-dessus de la référence) */
+        private double tolerance = 1.5;
+        /** poids d'une nouvelle estimation dans la limite lissée (0 à 1) */
+        private double smoothing = 0.2;
+        /** délai (s) annoncé aux clients refusés via l'en-tête Retry-After */
+        private long retryAfterSeconds = 1;
+
+        Limit(int initialLimit, int maxLimit, int maxQueue, long maxWaitMillis, long retryAfterSeconds) {
+            this.initialLimit = initialLimit;
+            this.maxLimit = maxLimit;
+            this.maxQueue = maxQueue;
+            this.maxWaitMillis = maxWaitMillis;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Choix du noeud des lectures idempotentes (get, recherche) selon sa latence, et hedging
+     */
+    @Data
+    public static class Routing {
+
+        /** un client par noeud, les lectures sont envoyées au noeud le plus rapide */
+        private boolean enabled = false;
+        /** poids d'une nouvelle latence dans la moyenne d'un noeud (0 à 1) */
+        private double smoothing = 0.3;
+        /** durée (ms) au bout de laquelle la moyenne d'un noeud non sollicité est divisée par e */
+        private long decayMillis = 10000;
+        /** durée (ms) pendant laquelle un noeud en échec est écarté */
+        private long failureBackoffMillis = 5000;
+        /** duplique vers un second noeud une lecture trop lente */
+        private boolean hedging = false;
+        /** quantile des latences récentes au-delà duquel une lecture est dupliquée */
+        private double hedgeQuantile = 0.95;
+        /** délai minimal (ms) avant de dupliquer une lecture */
+        private long minHedgeDelayMillis = 5;
+        /** part maximale (%) des lectures pouvant être dupliquées */
+        private int hedgeBudgetPercent = 10;
+    }
+
+    /**
+     * Découpage des flux d'indexation en lots _bulk
+     */
+    @Data
+    public static class Bulk {
+
+        /** nombre maximal de documents par requête _bulk */
+        private int maxDocuments = 1000;
+        /** taille maximale (en octets) des sources d'une requête _bulk */
+        private long maxBytes = 5 * 1024 * 1024;
+        /** nombre de requêtes _bulk en vol simultanément */
+        private int concurrency = 2;
+        /** nombre maximal de renvois des documents rejetés par elasticsearch (429/503) */
+        private int maxRetries = 3;
+        /** attente maximale (ms) avant le premier renvoi, doublée à chaque renvoi */
+        private long initialBackoffMillis = 100;
+        /** attente maximale (ms) avant un renvoi */
+        private long maxBackoffMillis = 5000;
+        /** compresse (gzip) les corps _bulk des listes de documents */
+        private boolean gzip = false;
+        /** nombre de tampons de corps _bulk conservés entre deux lots */
+        private int pooledBuffers = 4;
+        /** capacité (octets) au-delà de laquelle un tampon de corps _bulk n'est pas conservé */
+        private long maxPooledBufferBytes = 16 * 1024 * 1024;
+    }
+
+    /**
+     * Sessions de chargement massif (refresh et réplicas suspendus)
+     */
+    @Data
+    public static class Load {
+
+        /** durée maximale (s) d'une session, au-delà les settings de l'index sont restaurés */
+        private long timeoutSeconds = 3600;
+        /** intervalle (s) de vérification des sessions échues */
+        private long checkIntervalSeconds = 60;
+        /** index d'enregistrement des sessions et des settings d'origine */
+        private String sessionsIndex = "recherche-load-sessions";
+    }
+
+    /**
+     * Reindex sans interruption vers un nouvel index versionné, derrière l'alias
+     */
+    @Data
+    public static class Reindex {
+
+        /** nombre de tranches du _reindex parallèle, {@code auto}: une par shard */
+        private String slices = "auto";
+        /** nombre de documents par lot de copie et de rejeu */
+        private int batchSize = 1000;
+        /** intervalle (ms) de suivi de la tâche de copie */
+        private long pollIntervalMillis = 1000;
+        /** nombre maximal de rejeux des écritures avant la bascule de l'alias */
+        private int replayPasses = 3;
+        /** attente (ms) des écritures en vol vers l'ancien index, après la bascule, avant le dernier rejeu */
+        private long swapGraceMillis = 1000;
+        /** supprime l'ancien index après la bascule, conservé sinon pour un retour arrière */
+        private boolean deleteSource = false;
+        /**
+         * autorise la migration d'un index concret portant le nom de l'alias: il est supprimé par la bascule,
+         * quel que soit {@code deleteSource}
+         */
+        private boolean migrateConcreteIndex = false;
+    }
+
+    /**
+     * Regroupement des indexations unitaires en requêtes _bulk
+     */
+    @Data
+    public static class Coalescing {
+
+        /** active le regroupement des appels à {@code index} */
+        private boolean enabled = false;
+        /** nombre maximal de documents par requête _bulk regroupée */
+        private int maxDocuments = 200;
+        /** délai maximal (ms) d'attente d'un document avant l'envoi de son lot */
+        private long maxDelayMillis = 5;
+        /** nombre de requêtes _bulk regroupées en vol simultanément */
+        private int concurrency = 4;
+    }
+
+    /**
+     * Regroupement des lectures par username en requêtes _mget
+     */
+    @Data
+    public static class MgetBatching {
+
+        /** active le regroupement des appels à {@code findByUserName} */
+        private boolean enabled = false;
+        /** nombre maximal de lectures par requête _mget */
+        private int maxDocuments = 100;
+        /** délai maximal (ms) d'attente d'une lecture avant l'envoi de son lot */
+        private long maxDelayMillis = 2;
+    }
+
+    /**
+     * Export complet des résultats par scroll découpé en tranches
+     */
+    @Data
+    public static class Export {
+
+        /** nombre de tranches (slices) lues en parallèle */
+        private int slices = 4;
+        /** nombre de documents par page de scroll */
+        private int pageSize = 500;
+        /** durée de vie (s) du contexte de scroll entre deux pages */
+        private long keepAliveSeconds = 60;
+    }
+
+    /**
+     * Pagination des recherches
+     */
+    @Data
+    public static class Search {
+
+        /** taille de page lorsqu'elle n'est pas précisée */
+        private int defaultSize = 5;
+        /** taille de page maximale acceptée */
+        private int maxSize = 100;
+    }
+
+    /**
+     * Requête d'une méthode de recherche, compilée une fois au démarrage
+     */
+    @Data
+    public static class Query {
+
+        public enum Type {
+            MULTI_MATCH, QUERY_STRING
+        }
+
+        private Type type = Type.MULTI_MATCH;
+        /** forme du texte recherché, {terme} étant remplacé par le terme de la requête */
+        private String pattern = "{terme}";
+        /** champs recherchés, boostés selon la syntaxe {@code champ^boost} */
+        private List<String> fields = new ArrayList<>();
+        /** opérateur entre les termes analysés: OR ou AND */
+        private String operator = "OR";
+        /** fuzziness (AUTO, 0, 1, 2), pas de recherche floue si vide */
+        private String fuzziness = "AUTO";
+        private int prefixLength = 0;
+        private int maxExpansions = 50;
+        private boolean transpositions = true;
+    }
+
+    /**
+     * Fusion des classements de la recherche composée
+     */
+    @Data
+    public static class Composed {
+
+        public enum Fusion {
+            RRF, SCORE
+        }
+
+        /** stratégie de fusion des classements wildcards et fuzzy */
+        private Fusion fusion = Fusion.RRF;
+        /** constante k de la reciprocal rank fusion */
+        private int rrfK = 60;
+        /** retourne dès qu'une recherche ramène seule assez de hits de confiance */
+        private boolean earlyReturn = false;
+        /** score à partir duquel un hit est jugé de confiance */
+        private float confidentScore = 5.0f;
+    }
+
+    /**
+     * Cache local des recherches et lectures par username
+     */
+    @Data
+    public static class Cache {
+
+        /** active le cache local */
+        private boolean enabled = false;
+        /** nombre maximal d'entrées par cache */
+        private long maxSize = 10000;
+        /** durée de vie (s) d'une entrée */
+        private long ttlSeconds = 30;
+    }
+
+    /**
+     * Index local exact des NSS et IDE employeur, chargé au démarrage par scroll
+     */
+    @Data
+    public static class Exact {
+
+        /** résout localement les recherches d'un NSS exact */
+        private boolean enabled = false;
+        /** nombre d'entrées attendu (un NSS par personne), la table grandit au-delà */
+        private int expectedEntries = 1000000;
+    }
+
+    /**
+     * Filtrage des champs source lus par les recherches, lectures et exports
+     */
+    @Data
+    public static class Source {
+
+        /**
+         * champs jamais lus depuis elasticsearch, quelle que soit la projection demandée
+         * (le champ de complétion {@code suggest} n'est utile qu'à l'index)
+         */
+        private List<String> excludes = new ArrayList<>(Arrays.asList("password", "suggest"));
+    }
 }
@@ -0,0 +1,26 @@
+package ch.globaz.tmmas.rechercheservice.domaine;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Une page de résultats de recherche, dont les éléments sont des documents complets ou projetés
+ * @param <T> le type des éléments
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class Page<T> {
+
+    private final List<T> items;
+
+    /** nombre total de documents correspondant à la recherche */
+    private final long total;
+
+    /** curseur opaque de la page suivante, null s'il n'y en a pas */
+    private final String cursor;
+
+}
@@ -0,0 +1,28 @@
+package ch.globaz.tmmas.rechercheservice.domaine;
+
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Une page de résultats de recherche
+ */
+@ToString(callSuper = true)
+public class PagePersonnes extends Page<Personne> {
+
+    public static final PagePersonnes EMPTY = new PagePersonnes(Collections.emptyList(), 0, null);
+
+    public PagePersonnes(List<Personne> personnes, long total, String cursor) {
+        super(personnes, total, cursor);
+    }
+
+    public PagePersonnes(Page<Personne> page) {
+        this(page.getItems(), page.getTotal(), page.getCursor());
+    }
+
+    public List<Personne> getPersonnes() {
+        return getItems();
+    }
+
+}
@@ -0,0 +1,42 @@
+package ch.globaz.tmmas.rechercheservice.domaine;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Vue résumée d'une personne pour les listes de résultats: nom, localité et NSS.<br/>
+ * Seuls les champs {@link #FIELDS} sont lus depuis elasticsearch.
+ */
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PersonneResume {
+
+    /** champs source nécessaires au résumé */
+    public static final String[] FIELDS = {"username", "nom", "prenom", "nss", "adresse.localite"};
+
+    private String username;
+
+    private String nom;
+
+    private String prenom;
+
+    private String nss;
+
+    private String localite;
+
+    /**
+     * La localité est lue depuis l'adresse du document source
+     */
+    @JsonProperty(value = "adresse", access = JsonProperty.Access.WRITE_ONLY)
+    private void setAdresse(Adresse adresse) {
+        this.localite = adresse == null ? null : adresse.getLocalite();
+    }
+
+}
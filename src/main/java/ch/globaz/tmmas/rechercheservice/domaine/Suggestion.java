@@ -0,0 +1,21 @@
+package ch.globaz.tmmas.rechercheservice.domaine;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Suggestion de saisie: le texte complété et la personne dont il provient
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class Suggestion {
+
+    private final String text;
+
+    private final String username;
+
+    private final float score;
+
+}
@@ -0,0 +1,41 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import org.elasticsearch.action.index.IndexRequest;
+
+/**
+ * Détermine les frontières des lots _bulk d'un flux d'indexation, par nombre de documents et taille en octets.<br/>
+ * Non thread-safe: une instance par souscription au flux.
+ */
+class BulkBatchLimiter {
+
+    private final int maxDocuments;
+    private final long maxBytes;
+
+    private int documents;
+    private long bytes;
+
+    BulkBatchLimiter(int maxDocuments, long maxBytes) {
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Comptabilise la requête et indique si elle doit ouvrir un nouveau lot.
+     * Un document plus gros que la taille maximale forme à lui seul un lot.
+     * @param request la requête d'indexation suivante du flux
+     * @return true si le lot courant est plein et que la requête débute le suivant
+     */
+    boolean startsNewBatch(IndexRequest request) {
+        long size = request.source().length();
+        boolean full = documents > 0 && (documents >= maxDocuments || bytes + size > maxBytes);
+
+        if (full) {
+            documents = 0;
+            bytes = 0;
+        }
+
+        documents++;
+        bytes += size;
+        return full;
+    }
+}
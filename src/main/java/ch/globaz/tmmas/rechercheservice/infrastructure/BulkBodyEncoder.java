@@ -0,0 +1,107 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodage d'un lot de personnes en corps _bulk ndjson (ligne d'action puis source), écrit directement
+ * dans un seul tampon: ni source intermédiaire par document, ni {@code BulkRequest} à réencoder.<br/>
+ * Un document qui ne peut être sérialisé est retiré du corps, les autres sont envoyés.
+ */
+@Slf4j
+class BulkBodyEncoder {
+
+    private static final int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    private final PersonneEncoder encoder;
+    private final JsonFactory jsonFactory;
+    private final BulkBufferPool pool;
+
+    BulkBodyEncoder(PersonneEncoder encoder, BulkBufferPool pool) {
+        this.encoder = encoder;
+        this.jsonFactory = encoder.jsonFactory();
+        this.pool = pool;
+    }
+
+    /**
+     * @param docs les documents du lot
+     * @param index l'index cible
+     * @param type le type cible
+     * @param gzip compresse le corps
+     * @return le corps, dont le tampon est à rendre au pool une fois envoyé
+     */
+    BulkBody encode(List<Personne> docs, String index, String type, boolean gzip) throws IOException {
+        BulkBufferPool.BulkBuffer buffer = pool.acquire();
+        BulkBody body = new BulkBody(buffer, gzip);
+
+        for (int i = 0; i < docs.size(); i++) {
+            Personne doc = docs.get(i);
+            int mark = buffer.size();
+            try {
+                write(doc, index, type, buffer);
+                body.positions.add(i);
+            } catch (IOException e) {
+                log.error("Unable to serialize {}", doc.getUsername(), e);
+                buffer.truncate(mark);
+                body.failures.put(i, e);
+            }
+        }
+
+        if (gzip && !body.positions.isEmpty()) {
+            BulkBufferPool.BulkBuffer compressed = pool.acquire();
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed, GZIP_BUFFER_SIZE)) {
+                buffer.writeTo(out);
+            } finally {
+                pool.release(buffer);
+            }
+            body.buffer = compressed;
+        }
+        return body;
+    }
+
+    /**
+     * Un générateur par document: un échec de sérialisation n'affecte pas les documents suivants
+     */
+    private void write(Personne doc, String index, String type, BulkBufferPool.BulkBuffer buffer) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(buffer)) {
+            generator.setRootValueSeparator(null);
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("index");
+            generator.writeStringField("_index", index);
+            generator.writeStringField("_type", type);
+            generator.writeStringField("_id", doc.getUsername());
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            encoder.encode(doc, generator);
+            generator.writeRaw('\n');
+        }
+    }
+
+    /**
+     * Corps _bulk encodé: positions des documents envoyés, dans l'ordre du corps, et échecs de sérialisation
+     */
+    @Getter
+    static final class BulkBody {
+
+        private BulkBufferPool.BulkBuffer buffer;
+        private final boolean gzip;
+        private final List<Integer> positions = new ArrayList<>();
+        private final Map<Integer, Exception> failures = new LinkedHashMap<>();
+
+        private BulkBody(BulkBufferPool.BulkBuffer buffer, boolean gzip) {
+            this.buffer = buffer;
+            this.gzip = gzip;
+        }
+    }
+}
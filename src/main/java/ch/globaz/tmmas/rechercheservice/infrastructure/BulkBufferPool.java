@@ -0,0 +1,80 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tampons des corps _bulk, réutilisés d'un lot à l'autre.<br/>
+ * Un tampon n'est rendu qu'une fois son corps entièrement envoyé; un tampon non rendu est simplement
+ * laissé au ramasse-miettes. Les tampons devenus trop grands ne sont pas conservés.
+ */
+class BulkBufferPool {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final Queue<BulkBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final int maxIdle;
+    private final long maxRetainedBytes;
+
+    /**
+     * @param maxIdle nombre maximal de tampons conservés
+     * @param maxRetainedBytes capacité au-delà de laquelle un tampon rendu n'est pas conservé
+     */
+    BulkBufferPool(int maxIdle, long maxRetainedBytes) {
+        this.maxIdle = maxIdle;
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    BulkBuffer acquire() {
+        BulkBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return new BulkBuffer(INITIAL_CAPACITY);
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    void release(BulkBuffer buffer) {
+        if (buffer.capacity() > maxRetainedBytes) {
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        buffer.reset();
+        idle.offer(buffer);
+    }
+
+    /**
+     * Tampon extensible dont le contenu est lu sans copie
+     */
+    static final class BulkBuffer extends ByteArrayOutputStream {
+
+        private BulkBuffer(int capacity) {
+            super(capacity);
+        }
+
+        /**
+         * @return le tableau interne, valide jusqu'à la prochaine écriture; seuls les {@link #size()} premiers
+         * octets sont significatifs
+         */
+        synchronized byte[] array() {
+            return buf;
+        }
+
+        synchronized int capacity() {
+            return buf.length;
+        }
+
+        /**
+         * Abandonne les octets écrits après {@code size}
+         */
+        synchronized void truncate(int size) {
+            count = size;
+        }
+    }
+}
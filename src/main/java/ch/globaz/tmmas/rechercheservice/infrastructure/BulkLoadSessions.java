@@ -0,0 +1,259 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes;
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sessions de chargement massif d'un index: le refresh et les réplicas sont suspendus le temps du chargement.<br/>
+ * Les settings d'origine sont enregistrés dans elasticsearch (index {@code elasticsearch.load.sessionsIndex}),
+ * avec l'échéance de la session: toute instance du service restaure les settings d'une session échue,
+ * y compris celle d'une instance arrêtée brutalement. Un arrêt normal restaure immédiatement
+ * les sessions de l'instance.<br/>
+ * Une seule session par index: en démarrer une seconde, ou une session pendant un reindex de l'index,
+ * est refusé ({@link IllegalStateException}).
+ */
+@Slf4j
+@Component
+public class BulkLoadSessions {
+
+    private static final String SESSION_TYPE = "session";
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final Map<String, String> IGNORE_NOT_FOUND = Collections.singletonMap("ignore", "404");
+
+    private final RestHighLevelClient client;
+    private final ObjectMapper objectMapper;
+    private final ElasticSearchProperties.Load properties;
+    /** le reindexer dépend des sessions: il est résolu à l'usage */
+    private final ObjectProvider<IndexReindexer> reindexers;
+    private final String owner = UUID.randomUUID().toString();
+
+    private Disposable expiration;
+
+    public BulkLoadSessions(RestHighLevelClient client, ObjectMapper objectMapper, ElasticSearchProperties properties,
+                            ObjectProvider<IndexReindexer> reindexers) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.properties = properties.getLoad();
+        this.reindexers = reindexers;
+    }
+
+    /**
+     * Démarre une session: enregistre les settings courants puis suspend refresh et réplicas.
+     * Le reindex est vérifié une fois la session enregistrée, le reindex vérifiant les sessions une fois démarré:
+     * l'un des deux voit toujours l'autre.
+     * @param index l'index chargé
+     * @param timeout durée maximale de la session, durée par défaut si null
+     * @return une Mono contenant la session démarrée
+     */
+    public Mono<BulkLoadSession> start(ElasticSearchIndexes index, Duration timeout) {
+        Duration duration = timeout != null ? timeout : Duration.ofSeconds(properties.getTimeoutSeconds());
+
+        return settings(index)
+                .map(settings -> new BulkLoadSession(index.index(), owner,
+                        settings.path(REFRESH_INTERVAL).asText("1s"),
+                        settings.path(NUMBER_OF_REPLICAS).asInt(1),
+                        Instant.now().toEpochMilli(),
+                        Instant.now().plus(duration).toEpochMilli()))
+                .flatMap(session -> perform("PUT", sessionEndpoint(session.getIndex()) + "/_create",
+                        ImmutableMap.of("refresh", "true"), json(session))
+                        .onErrorMap(e -> RestCalls.isStatus(e, 409), e -> new IllegalStateException(
+                                "A bulk load session is already started on " + session.getIndex(), e))
+                        .then(Mono.defer(() -> reindex(index))
+                                .flatMap(status -> perform("DELETE", sessionEndpoint(session.getIndex()),
+                                        ImmutableMap.of("refresh", "true", "ignore", "404"), null)
+                                        .then(Mono.<Response>error(new IllegalStateException(
+                                                "A reindex is running on " + session.getIndex())))))
+                        .then(updateSettings(session.getIndex(), "-1", 0)
+                                //settings non appliqués: la session n'a pas lieu d'être
+                                .onErrorResume(e -> restore(session)
+                                        .onErrorResume(restoreError -> Mono.empty())
+                                        .then(Mono.error(e))))
+                        .thenReturn(session))
+                .doOnNext(session -> log.info("Bulk load session started on {}, expires at {}",
+                        session.getIndex(), Instant.ofEpochMilli(session.getExpiresAt())));
+    }
+
+    /**
+     * Termine la session: restaure les settings d'origine, rafraîchit l'index puis le fusionne si demandé
+     * @param index l'index chargé
+     * @param maxSegments nombre de segments visé par le force merge, pas de force merge si null
+     * @return une Mono contenant la session terminée
+     */
+    public Mono<BulkLoadSession> finish(ElasticSearchIndexes index, Integer maxSegments) {
+        return find(index.index())
+                .switchIfEmpty(Mono.error(new IllegalStateException(
+                        "No bulk load session started on " + index.index())))
+                .flatMap(session -> restore(session)
+                        .then(perform("POST", "/" + session.getIndex() + "/_refresh", Collections.emptyMap(), null))
+                        .then(maxSegments == null
+                                ? Mono.empty()
+                                : perform("POST", "/" + session.getIndex() + "/_forcemerge",
+                                        ImmutableMap.of("max_num_segments", String.valueOf(maxSegments)), null))
+                        .thenReturn(session))
+                .doOnNext(session -> log.info("Bulk load session finished on {}", session.getIndex()));
+    }
+
+    /**
+     * @return une Mono contenant la session en cours sur l'index, vide s'il n'y en a pas
+     */
+    public Mono<BulkLoadSession> find(String index) {
+        return perform("GET", sessionEndpoint(index), IGNORE_NOT_FOUND, null)
+                .flatMap(response -> {
+                    JsonNode document = read(response);
+                    return document.path("found").asBoolean()
+                            ? Mono.just(objectMapper.convertValue(document.path("_source"), BulkLoadSession.class))
+                            : Mono.empty();
+                });
+    }
+
+    /**
+     * Restaure au démarrage les sessions échues, puis les vérifie périodiquement
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void watchExpiredSessions() {
+        expiration = Flux.interval(Duration.ZERO, Duration.ofSeconds(properties.getCheckIntervalSeconds()))
+                .concatMap(tick -> Flux.fromArray(ElasticSearchIndexes.values())
+                        .concatMap(index -> find(index.index())
+                                .filter(session -> session.getExpiresAt() < System.currentTimeMillis())
+                                .doOnNext(session -> log.warn("Bulk load session on {} expired, restoring settings",
+                                        session.getIndex()))
+                                .flatMap(this::restore))
+                        .onErrorResume(e -> {
+                            log.warn("Unable to check bulk load sessions", e);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    /**
+     * Arrêt normal: les sessions de l'instance ne lui survivent pas
+     */
+    @PreDestroy
+    void destroy() {
+        if (expiration != null) {
+            expiration.dispose();
+        }
+        for (ElasticSearchIndexes index : ElasticSearchIndexes.values()) {
+            try {
+                find(index.index())
+                        .filter(session -> owner.equals(session.getOwner()))
+                        .flatMap(this::restore)
+                        .block(Duration.ofSeconds(30));
+            } catch (RuntimeException e) {
+                log.error("Unable to restore bulk load session on {}", index.index(), e);
+            }
+        }
+    }
+
+    /**
+     * @return une Mono contenant le reindex en cours sur l'index, vide s'il n'y en a pas
+     */
+    private Mono<IndexReindexer.Status> reindex(ElasticSearchIndexes index) {
+        IndexReindexer reindexer = reindexers.getIfAvailable();
+        if (reindexer == null) {
+            return Mono.empty();
+        }
+        return reindexer.status()
+                .filter(status -> status.isRunning() && index.index().equals(status.getAlias()));
+    }
+
+    private Mono<Void> restore(BulkLoadSession session) {
+        return updateSettings(session.getIndex(), session.getRefreshInterval(), session.getNumberOfReplicas())
+                //la session a pu être restaurée entre-temps par une autre instance
+                .then(perform("DELETE", sessionEndpoint(session.getIndex()),
+                        ImmutableMap.of("refresh", "true", "ignore", "404"), null))
+                .then();
+    }
+
+    private Mono<ObjectNode> settings(ElasticSearchIndexes index) {
+        return perform("GET", "/" + index.index() + "/_settings/" + REFRESH_INTERVAL + "," + NUMBER_OF_REPLICAS,
+                ImmutableMap.of("include_defaults", "true", "flat_settings", "true"), null)
+                .map(response -> {
+                    //la réponse est indexée par le nom de l'index physique, qui peut différer de l'alias
+                    Iterator<JsonNode> indexes = read(response).elements();
+                    ObjectNode settings = objectMapper.createObjectNode();
+                    if (indexes.hasNext()) {
+                        JsonNode indexSettings = indexes.next();
+                        //les settings explicites priment sur les valeurs par défaut
+                        indexSettings.path("defaults").fields().forEachRemaining(e -> settings.set(e.getKey(), e.getValue()));
+                        indexSettings.path("settings").fields().forEachRemaining(e -> settings.set(e.getKey(), e.getValue()));
+                    }
+                    return settings;
+                });
+    }
+
+    private Mono<Response> updateSettings(String index, String refreshInterval, int numberOfReplicas) {
+        Map<String, Object> settings = ImmutableMap.of("index", ImmutableMap.of(
+                "refresh_interval", refreshInterval,
+                "number_of_replicas", numberOfReplicas));
+        return perform("PUT", "/" + index + "/_settings", Collections.emptyMap(), json(settings));
+    }
+
+    private String sessionEndpoint(String index) {
+        return "/" + properties.getSessionsIndex() + "/" + SESSION_TYPE + "/" + index;
+    }
+
+    private Mono<Response> perform(String method, String endpoint, Map<String, String> params, String body) {
+        return RestCalls.perform(client.getLowLevelClient(), method, endpoint, params, body);
+    }
+
+    private JsonNode read(Response response) {
+        try {
+            return objectMapper.readTree(response.getEntity().getContent());
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private String json(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    /**
+     * Session enregistrée: settings d'origine de l'index et échéance (epoch ms)
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class BulkLoadSession {
+        private String index;
+        private String owner;
+        private String refreshInterval;
+        private int numberOfReplicas;
+        private long startedAt;
+        private long expiresAt;
+    }
+}
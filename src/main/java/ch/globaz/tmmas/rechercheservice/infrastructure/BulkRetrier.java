@@ -0,0 +1,166 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import static ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes.PERSONNES;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Envoi d'un lot _bulk avec renvoi des seuls documents rejetés par elasticsearch.<br/>
+ * Les items en échec pour cause de surcharge (429, 503) sont regroupés dans un nouveau lot, renvoyé après
+ * une attente exponentielle aléatoire (full jitter), jusqu'au nombre maximal de renvois; un lot entièrement
+ * rejeté, ou refusé par le limiteur de concurrence, est renvoyé de même. Les autres échecs (mapping, document invalide) sont définitifs.<br/>
+ * La réponse finale contient un item par requête, dans l'ordre des requêtes, avec son dernier résultat.
+ * @param <R> le type des requêtes du lot (requête d'indexation, document)
+ */
+@Slf4j
+class BulkRetrier<R> {
+
+    private final Function<List<R>, Mono<BulkResponse>> bulk;
+    private final Function<R, String> id;
+    private final ElasticSearchProperties.Bulk properties;
+    private final ElasticSearchMetrics metrics;
+
+    /**
+     * @param bulk l'envoi d'un lot de requêtes d'indexation, répondant un item par requête dans l'ordre du lot
+     * @param id l'id du document d'une requête
+     */
+    BulkRetrier(Function<List<R>, Mono<BulkResponse>> bulk, Function<R, String> id,
+                ElasticSearchProperties.Bulk properties, ElasticSearchMetrics metrics) {
+        this.bulk = bulk;
+        this.id = id;
+        this.properties = properties;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param requests les requêtes du lot
+     * @return une Mono contenant le résultat final de chaque requête
+     */
+    Mono<BulkResponse> execute(List<R> requests) {
+        if (requests.isEmpty()) {
+            return Mono.just(new BulkResponse(new BulkItemResponse[0], 0));
+        }
+        return Mono.defer(() -> send(new BulkState(requests), 0));
+    }
+
+    private Mono<BulkResponse> send(BulkState state, int attempt) {
+        return bulk.apply(state.pendingRequests())
+                .map(state::merge)
+                .onErrorResume(BulkRetrier::isRetryable, e -> {
+                    log.warn("Bulk of {} documents rejected, attempt {}", state.pending.size(), attempt + 1, e);
+                    return Mono.just(state.reject(e));
+                })
+                .flatMap(current -> {
+                    if (current.pending.isEmpty()) {
+                        return Mono.just(current.response());
+                    }
+                    if (attempt >= properties.getMaxRetries()) {
+                        log.warn("{} documents still rejected after {} retries", current.pending.size(), attempt);
+                        metrics.bulkDropped("retries_exhausted", current.pending.size());
+                        return Mono.just(current.response());
+                    }
+
+                    metrics.bulkRetried(current.pending.size());
+                    return Mono.delay(backoff(attempt)).then(Mono.defer(() -> send(current, attempt + 1)));
+                });
+    }
+
+    /**
+     * Attente aléatoire entre 0 et {@code min(max, initiale * 2^tentative)}
+     */
+    private Duration backoff(int attempt) {
+        long ceiling = Math.min(properties.getMaxBackoffMillis(),
+                properties.getInitialBackoffMillis() << Math.min(attempt, 30));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(Math.max(ceiling, 1) + 1));
+    }
+
+    /**
+     * Lot rejeté par elasticsearch, ou refusé localement par le limiteur de concurrence des écritures
+     */
+    private static boolean isRetryable(Throwable error) {
+        return error instanceof ElasticSearchOverloadedException || ConcurrencyLimiter.isOverload(error);
+    }
+
+    private static boolean isRetryable(BulkItemResponse item) {
+        return item.isFailed() && ConcurrencyLimiter.isOverload(item.getFailure().getStatus());
+    }
+
+    /**
+     * Résultats d'un lot au fil des renvois: positions restant à envoyer et dernier item de chaque requête
+     */
+    private class BulkState {
+
+        private final List<R> requests;
+        private final BulkItemResponse[] items;
+        private List<Integer> pending;
+        private long tookMillis;
+
+        private BulkState(List<R> requests) {
+            this.requests = requests;
+            this.items = new BulkItemResponse[requests.size()];
+            this.pending = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                pending.add(i);
+            }
+        }
+
+        private List<R> pendingRequests() {
+            List<R> batch = new ArrayList<>(pending.size());
+            pending.forEach(position -> batch.add(requests.get(position)));
+            return batch;
+        }
+
+        /**
+         * Les items de la réponse sont dans l'ordre des requêtes envoyées, soit celui des positions en attente
+         */
+        private BulkState merge(BulkResponse response) {
+            BulkItemResponse[] responseItems = response.getItems();
+            List<Integer> retry = new ArrayList<>();
+
+            for (int i = 0; i < responseItems.length; i++) {
+                int position = pending.get(i);
+                items[position] = renumber(responseItems[i], position);
+                if (isRetryable(responseItems[i])) {
+                    retry.add(position);
+                }
+            }
+            tookMillis += response.getTook().millis();
+            pending = retry;
+            return this;
+        }
+
+        /**
+         * Lot entièrement rejeté: toutes les requêtes en attente restent à renvoyer
+         */
+        private BulkState reject(Throwable error) {
+            Exception cause = error instanceof Exception ? (Exception) error : new RuntimeException(error);
+            for (int position : pending) {
+                items[position] = BulkItemResponse.failure(position, DocWriteRequest.OpType.INDEX,
+                        new BulkItemResponse.Failure(PERSONNES.index(), PERSONNES.type(), id.apply(requests.get(position)),
+                                cause));
+            }
+            return this;
+        }
+
+        private BulkResponse response() {
+            return new BulkResponse(items, tookMillis);
+        }
+
+        private BulkItemResponse renumber(BulkItemResponse item, int position) {
+            return item.isFailed()
+                    ? BulkItemResponse.failure(position, item.getOpType(), item.getFailure())
+                    : BulkItemResponse.success(position, item.getOpType(), item.getResponse());
+        }
+    }
+}
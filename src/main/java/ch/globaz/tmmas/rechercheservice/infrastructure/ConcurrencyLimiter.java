@@ -0,0 +1,265 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limite adaptative du nombre d'appels elasticsearch en vol.<br/>
+ * La limite suit le gradient entre la latence de référence (moyenne longue) et la latence observée:
+ * tant que la latence reste proche de sa référence, la limite croît; lorsqu'elle se dégrade, la limite
+ * diminue en proportion. Un rejet ou un timeout d'elasticsearch la réduit immédiatement.<br/>
+ * Au-delà de la limite, les appels attendent dans une file bornée, puis sont refusés
+ * par une {@link ElasticSearchOverloadedException}, sans avoir été envoyés.
+ */
+@Slf4j
+class ConcurrencyLimiter {
+
+    /** nombre d'échantillons de la moyenne longue de latence */
+    private static final int LONG_WINDOW = 600;
+    /** réduction multiplicative de la limite en cas de surcharge d'elasticsearch */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final ElasticSearchProperties.Limit properties;
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private final Counter rejected;
+    private final Counter timedOut;
+
+    private double limit;
+    private double longRttNanos;
+    private int inFlight;
+
+    /**
+     * @param name le nom du limiteur (reads, writes), utilisé comme tag des métriques
+     */
+    ConcurrencyLimiter(String name, ElasticSearchProperties.Limit properties) {
+        this.name = name;
+        this.properties = properties;
+        this.limit = properties.getInitialLimit();
+
+        Tags tags = Tags.of("limiter", name);
+        this.rejected = Metrics.counter("es.limit.rejected", tags.and("reason", "rejected"));
+        this.timedOut = Metrics.counter("es.limit.rejected", tags.and("reason", "timeout"));
+        Metrics.gauge("es.limit", tags, this, ConcurrencyLimiter::getLimit);
+        Metrics.gauge("es.limit.inflight", tags, this, ConcurrencyLimiter::getInFlight);
+        Metrics.gauge("es.limit.queued", tags, this, ConcurrencyLimiter::getQueued);
+    }
+
+    /**
+     * @param call l'appel à limiter, souscrit une fois une place obtenue
+     * @return une Mono émettant le résultat de l'appel, ou une {@link ElasticSearchOverloadedException}
+     */
+    <T> Mono<T> limit(Mono<T> call) {
+        if (!properties.isEnabled()) {
+            return call;
+        }
+        return acquire().then(Mono.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean released = new AtomicBoolean();
+
+            return call
+                    .doOnSuccessOrError((value, e) -> {
+                        if (released.compareAndSet(false, true)) {
+                            release(System.nanoTime() - start, e);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (released.compareAndSet(false, true)) {
+                            release(-1, null);
+                        }
+                    });
+        }));
+    }
+
+    synchronized double getLimit() {
+        return limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getQueued() {
+        return queue.size();
+    }
+
+    private Mono<Void> acquire() {
+        return Mono.<Void>create(sink -> {
+            Waiter waiter = new Waiter(sink);
+            synchronized (this) {
+                if (queue.isEmpty() && inFlight < (int) limit) {
+                    waiter.grant();
+                    inFlight++;
+                } else if (queue.size() < properties.getMaxQueue()) {
+                    queue.addLast(waiter);
+                } else {
+                    rejected.increment();
+                    sink.error(overloaded(ElasticSearchOverloadedException.Reason.REJECTED));
+                    return;
+                }
+            }
+
+            sink.onCancel(() -> cancel(waiter));
+            if (waiter.isGranted()) {
+                sink.success();
+            }
+        })
+        .timeout(Duration.ofMillis(properties.getMaxWaitMillis()), Mono.defer(() -> {
+            timedOut.increment();
+            return Mono.error(overloaded(ElasticSearchOverloadedException.Reason.TIMEOUT));
+        }));
+    }
+
+    /**
+     * Annulation avant que l'appel ne soit souscrit: la place accordée entre-temps n'a pas été utilisée
+     */
+    private void cancel(Waiter waiter) {
+        boolean granted;
+        synchronized (this) {
+            granted = !waiter.cancel();
+            queue.remove(waiter);
+        }
+        if (granted) {
+            release(-1, null);
+        }
+    }
+
+    /**
+     * @param rttNanos la durée de l'appel, négative si l'appel a été annulé
+     * @param error l'erreur de l'appel, null en cas de succès
+     */
+    private void release(long rttNanos, Throwable error) {
+        Waiter next;
+        synchronized (this) {
+            if (error != null && isOverload(error)) {
+                limit = Math.max(properties.getMinLimit(), limit * BACKOFF_RATIO);
+                log.debug("Elasticsearch {} overloaded, limit reduced to {}", name, limit);
+            } else if (error == null && rttNanos > 0) {
+                update(rttNanos);
+            }
+            inFlight--;
+            next = grantNext();
+        }
+        while (next != null) {
+            next.sink.success();
+            synchronized (this) {
+                next = grantNext();
+            }
+        }
+    }
+
+    /**
+     * Limite de gradient: {@code limite * min(1, tolérance * rtt long / rtt) + sqrt(limite)}, lissée.
+     * La limite n'augmente que si elle est réellement utilisée.
+     */
+    private void update(long rttNanos) {
+        longRttNanos = longRttNanos == 0
+                ? rttNanos
+                : longRttNanos + (rttNanos - longRttNanos) / LONG_WINDOW;
+
+        //après une dégradation durable, la référence redescend plus vite vers la latence courante
+        if (longRttNanos > 2 * rttNanos) {
+            longRttNanos *= 0.95;
+        }
+
+        if (inFlight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, properties.getTolerance() * longRttNanos / rttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        double smoothing = properties.getSmoothing();
+
+        limit = Math.max(properties.getMinLimit(),
+                Math.min(properties.getMaxLimit(), limit * (1 - smoothing) + newLimit * smoothing));
+    }
+
+    private Waiter grantNext() {
+        while (!queue.isEmpty() && inFlight < (int) limit) {
+            Waiter waiter = queue.pollFirst();
+            if (waiter.grant()) {
+                inFlight++;
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    private ElasticSearchOverloadedException overloaded(ElasticSearchOverloadedException.Reason reason) {
+        return new ElasticSearchOverloadedException(name, reason, properties.getRetryAfterSeconds());
+    }
+
+    /**
+     * Erreurs signalant une surcharge d'elasticsearch: rejet des thread pools (429), indisponibilité (503)
+     * ou délai de réponse dépassé
+     */
+    static boolean isOverload(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof EsRejectedExecutionException
+                    || cause instanceof SocketTimeoutException
+                    || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof ElasticsearchStatusException
+                    && isOverload(((ElasticsearchStatusException) cause).status())) {
+                return true;
+            }
+            if (cause instanceof ResponseException
+                    && isOverload(RestStatus.fromCode(
+                            ((ResponseException) cause).getResponse().getStatusLine().getStatusCode()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isOverload(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Appel en attente d'une place: accordé ou annulé une seule fois
+     */
+    private static final class Waiter {
+
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final MonoSink<Void> sink;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Waiter(MonoSink<Void> sink) {
+            this.sink = sink;
+        }
+
+        private boolean grant() {
+            return state.compareAndSet(WAITING, GRANTED);
+        }
+
+        private boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        private boolean isGranted() {
+            return state.get() == GRANTED;
+        }
+    }
+}
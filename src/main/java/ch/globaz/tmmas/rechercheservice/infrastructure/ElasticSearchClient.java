@@ -3,44 +3,91 @@ package ch.globaz.tmmas.rechercheservice.infrastructure;
 import static ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes.*;
 
 import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes;
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import ch.globaz.tmmas.rechercheservice.domaine.Page;
+import ch.globaz.tmmas.rechercheservice.domaine.PagePersonnes;
 import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import ch.globaz.tmmas.rechercheservice.domaine.PersonneResume;
+import ch.globaz.tmmas.rechercheservice.domaine.Suggestion;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.action.search.MultiSearchRequest;
-import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.search.suggest.SuggestBuilder;
+import org.elasticsearch.search.suggest.SuggestBuilders;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -57,12 +104,165 @@ public class ElasticSearchClient {
     @Autowired
     private final RestHighLevelClient client;
     @Autowired
-    private final ObjectMapper objectMapper;
+    private final PersonneEncoder encoder;
+    @Autowired
+    private final ElasticSearchProperties properties;
+    @Autowired
+    private final PersonneDecoder decoder;
+    @Autowired
+    private final QueryBuilderFactory queryBuilderFactory;
+    @Autowired
+    private final ObjectProvider<NodeRouter> nodeRouters;
+    @Autowired
+    private final IndexReindexer reindexer;
+
+    private static final String COMPOSED = "composed";
+    /** projection {@code fields} prédéfinie: vue résumée des listes de résultats */
+    public static final String RESUME = "resume";
+    private static final String SUGGESTION = "personnes";
+
+    /** noms des opérations hors recherche, pour les métriques */
+    private static final String GET = "get";
+    private static final String MGET = "mget";
+    private static final String INDEX = "index";
+    private static final String BULK = "bulk";
+    private static final String SUGGEST = "suggest";
 
-    private final Timer indexTimer = Metrics.timer("es.timer");
+    /** sous-champ keyword du mapping dynamique, utilisé comme départage du tri */
+    private static final String USERNAME_SORT_FIELD = "username.keyword";
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+
+    private final Timer indexTimer = Timer.builder("es.timer").publishPercentileHistogram().register(Metrics.globalRegistry);
     private final LongAdder concurrent = Metrics.gauge("es.concurrent", new LongAdder());
     private final Counter successes = Metrics.counter("es.index", "result", "success");
     private final Counter failures = Metrics.counter("es.index", "result", "failure");
+    private final ElasticSearchMetrics metrics = new ElasticSearchMetrics();
+
+    private IndexRequestCoalescer coalescer;
+    private GetRequestBatcher getBatcher;
+    private RankFusion rankFusion;
+    private PersonneNearCache nearCache;
+    private SingleFlight<String, GetResponse> getFlights;
+    private SingleFlight<String, SearchResponse> searchFlights;
+    private Scheduler decodeScheduler;
+    private ConcurrencyLimiter readLimiter;
+    private ConcurrencyLimiter writeLimiter;
+    private BulkRetrier<IndexRequest> bulkRetrier;
+    private BulkRetrier<Personne> documentBulkRetrier;
+    private BulkBufferPool bulkBuffers;
+    private BulkBodyEncoder bulkEncoder;
+    private NodeRouter nodeRouter;
+    private Projection<Personne> personnes;
+    private Projection<PersonneResume> resumes;
+    private PersonneExactIndex exactIndex;
+    private Projection<Personne> exactKeys;
+    private Disposable exactLoad;
+
+    @PostConstruct
+    void init() {
+        int decodeThreads = properties.getDecode().getThreads();
+        decodeScheduler = Schedulers.newParallel("es-decode",
+                decodeThreads > 0 ? decodeThreads : Runtime.getRuntime().availableProcessors(), true);
+        readLimiter = new ConcurrencyLimiter("reads", properties.getLimits().getReads());
+        writeLimiter = new ConcurrencyLimiter("writes", properties.getLimits().getWrites());
+        ElasticSearchProperties.Bulk bulk = properties.getBulk();
+        bulkBuffers = new BulkBufferPool(bulk.getPooledBuffers(), bulk.getMaxPooledBufferBytes());
+        bulkEncoder = new BulkBodyEncoder(encoder, bulkBuffers);
+        bulkRetrier = new BulkRetrier<>(this::bulk, IndexRequest::id, bulk, metrics);
+        documentBulkRetrier = new BulkRetrier<>(this::bulkDocuments, Personne::getUsername, bulk, metrics);
+        String[] excludes = properties.getSource().getExcludes().toArray(new String[0]);
+        personnes = new Projection<>("personne", new String[0], excludes, decoder::decode);
+        resumes = new Projection<>(RESUME, PersonneResume.FIELDS, excludes, decoder::decodeResume);
+
+        if (properties.getExact().isEnabled()) {
+            exactIndex = new PersonneExactIndex(properties.getExact().getExpectedEntries());
+            exactKeys = new Projection<>("exact", PersonneExactIndex.FIELDS, excludes, decoder::decode);
+        }
+
+        nodeRouter = nodeRouters.getIfAvailable();
+        if (nodeRouter != null) {
+            log.info("Read routing enabled on {}, hedging {}",
+                    properties.getHosts(), properties.getRouting().isHedging());
+        }
+
+        getFlights = new SingleFlight<>("get", properties.isSingleFlight());
+        searchFlights = new SingleFlight<>("search", properties.isSingleFlight());
+        nearCache = new PersonneNearCache(properties.getCache());
+
+        ElasticSearchProperties.Composed composed = properties.getComposed();
+        rankFusion = new RankFusion(strategy(composed.getFusion()), composed.getRrfK());
+
+        ElasticSearchProperties.Coalescing coalescing = properties.getCoalescing();
+
+        if (coalescing.isEnabled()) {
+            log.info("Index coalescing enabled, {} documents / {} ms",
+                    coalescing.getMaxDocuments(), coalescing.getMaxDelayMillis());
+            coalescer = new IndexRequestCoalescer(this::bulkIndexRequests,
+                    coalescing.getMaxDocuments(),
+                    Duration.ofMillis(coalescing.getMaxDelayMillis()),
+                    coalescing.getConcurrency());
+        }
+
+        ElasticSearchProperties.MgetBatching mgetBatching = properties.getMgetBatching();
+
+        if (mgetBatching.isEnabled()) {
+            log.info("Get batching enabled, {} documents / {} ms",
+                    mgetBatching.getMaxDocuments(), mgetBatching.getMaxDelayMillis());
+            getBatcher = new GetRequestBatcher(this::multiGet,
+                    mgetBatching.getMaxDocuments(),
+                    Duration.ofMillis(mgetBatching.getMaxDelayMillis()));
+        }
+    }
+
+    private static RankFusion.Strategy strategy(ElasticSearchProperties.Composed.Fusion fusion) {
+        switch (fusion) {
+            case RRF:
+                return RankFusion.Strategy.RRF;
+            case SCORE:
+                return RankFusion.Strategy.SCORE;
+            default:
+                throw new IllegalArgumentException("fusion specified error : " + fusion);
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        if (coalescer != null) {
+            coalescer.dispose();
+        }
+        if (getBatcher != null) {
+            getBatcher.dispose();
+        }
+        if (exactLoad != null) {
+            exactLoad.dispose();
+        }
+        decodeScheduler.dispose();
+    }
+
+    /**
+     * Chargement de l'index exact par un scroll de tous les documents, limité au NSS.
+     * Les recherches exactes passent par elasticsearch jusqu'à la fin du chargement.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadExactIndex() {
+        if (exactIndex == null) {
+            return;
+        }
+        ElasticSearchProperties.Export export = properties.getExport();
+        int slices = export.getSlices();
+        long start = System.nanoTime();
+
+        exactLoad = Flux.range(0, slices)
+                .flatMap(slice -> scrollSlice(QueryBuilders.matchAllQuery(), slice, slices, export, exactKeys), slices, 1)
+                .subscribe(exactIndex::put,
+                        e -> log.error("Unable to load exact index, exact searches go through elasticsearch", e),
+                        () -> {
+                            exactIndex.ready();
+                            log.info("Exact index loaded: {} entries, {} bytes in {} ms", exactIndex.size(),
+                                    exactIndex.bytes(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        });
+    }
 
     /**
      * Recherche un document pas son username (id es)
@@ -70,183 +270,511 @@ public class ElasticSearchClient {
      * @return une instance de Mono contenant potentiellement l'élément
      */
     public Mono<Personne> findByUserName(String userName) {
+        return metrics.latency(GET, nearCache.findByUserName(userName, () -> getByUserName(userName)));
+    }
 
-        return Mono.<GetResponse>create(element ->
-                        //appel asynchrone via le client es
-                        client.getAsync(new GetRequest(PERSONNES.index(), PERSONNES.type(), userName),
-                                listenerToMonoElement(element))
-                )
+    /**
+     * Lecture projetée d'un document, hors cache local et regroupement _mget
+     * @param userName le nom d'utilisateur recherché
+     * @param projection les champs lus, voir {@link #projection(List)}
+     * @return une instance de Mono contenant potentiellement le document projeté
+     */
+    public <T> Mono<T> findByUserName(String userName, Projection<T> projection) {
+        GetRequest getRequest = new GetRequest(PERSONNES.index(), PERSONNES.type(), userName)
+                .fetchSourceContext(projection.fetchSource());
+
+        Mono<T> document = getFlights
+                .execute(getRequest.index() + "/" + getRequest.id() + "/" + projection.key(), () -> this
+                        .<GetResponse>read(GET, (node, listener) -> node.getAsync(getRequest, listener)))
                 .filter(GetResponse::isExists)
-                .map(GetResponse::getSource)
-                .map(map -> objectMapper.convertValue(map, Personne.class));
+                .doOnNext(resp -> metrics.sourceBytes(GET, projection.getName(), resp.getSourceAsBytesRef().length()))
+                .map(resp -> metrics.decode(GET, () -> projection.decode(resp.getSourceAsBytesRef())));
+
+        return metrics.latency(GET, document);
     }
 
-    public Mono<List<Personne>> recherche(String methode,String terme){
+    /**
+     * @param fields les champs demandés: tous si vide, la vue résumée si {@value #RESUME},
+     *               les seuls champs source listés sinon
+     * @return la projection correspondante
+     */
+    public Projection<?> projection(List<String> fields) {
+        if (fields.isEmpty()) {
+            return personnes;
+        }
+        if (fields.size() == 1 && RESUME.equals(fields.get(0))) {
+            return resumes;
+        }
+        return new Projection<>("fields", fields.toArray(new String[0]),
+                properties.getSource().getExcludes().toArray(new String[0]), decoder::decodeTree);
+    }
 
-        log.debug("Search with methode : {} and terme: {}",methode,terme);
+    private Mono<Personne> getByUserName(String userName) {
+        GetRequest getRequest = new GetRequest(PERSONNES.index(), PERSONNES.type(), userName)
+                .fetchSourceContext(personnes.fetchSource());
 
-        switch (methode){
-            case "fuzzy":
-                log.debug("fuzzy search");
-                return fuzzy(fuzzySearchRequest(terme, ElasticSearchIndexes.PERSONNES.index()));
-            case "wildcards":
-                log.debug("wildcard search");
-                return wildCard(wildCardsSearchRequest(terme,ElasticSearchIndexes.PERSONNES.index()));
-            case "composed":
-                log.debug("composed search");
-                return composed(composedSearchRequest(terme,ElasticSearchIndexes.PERSONNES.index()));
-            default:
-                throw new IllegalArgumentException("methode name specified error : " + methode);
+        return getFlights.execute(getRequest.index() + "/" + getRequest.id(), () -> getBatcher != null
+                        ? getBatcher.get(userName)
+                        //appel asynchrone via le client es
+                        : this.<GetResponse>read(GET, (node, listener) -> node.getAsync(getRequest, listener)))
+                .filter(GetResponse::isExists)
+                .doOnNext(resp -> metrics.sourceBytes(GET, personnes.getName(), resp.getSourceAsBytesRef().length()))
+                .map(resp -> metrics.decode(GET, () -> decoder.decode(resp)));
+    }
+
+    /**
+     * Recherche plusieurs documents par leur username en une seule requête _mget
+     * @param userNames les noms d'utilisateur recherchés
+     * @return un flux des documents trouvés, dans l'ordre des usernames
+     */
+    public Flux<Personne> findByUserNames(List<String> userNames) {
+        if (userNames.isEmpty()) {
+            return Flux.empty();
         }
+        return multiGet(userNames)
+                .flatMapIterable(response -> Arrays.asList(response.getResponses()))
+                .filter(item -> {
+                    if (item.isFailed()) {
+                        log.warn("Unable to get {}: {}", item.getId(), item.getFailure().getMessage());
+                    }
+                    return !item.isFailed() && item.getResponse().isExists();
+                })
+                .map(item -> metrics.decode(MGET, () -> decoder.decode(item.getResponse())));
+    }
 
+    private Mono<MultiGetResponse> multiGet(List<String> userNames) {
+        MultiGetRequest multiGetRequest = new MultiGetRequest();
+        userNames.forEach(userName -> multiGetRequest.add(
+                new MultiGetRequest.Item(PERSONNES.index(), PERSONNES.type(), userName)
+                        .fetchSourceContext(personnes.fetchSource())));
+
+        //appel asynchrone via le client es
+        return call(MGET, listener -> client.multiGetAsync(multiGetRequest, listener));
+    }
+
+    public Mono<PagePersonnes> recherche(String methode,String terme){
+        return recherche(methode, terme, null, null);
+    }
+
+    /**
+     * Recherche paginée. Les résultats sont triés par score puis par username, la page suivante
+     * est obtenue via le curseur de la page courante ({@code search_after}).
+     * @param methode la méthode de recherche (fuzzy, wildcards, composed)
+     * @param terme le terme recherché
+     * @param size la taille de page, taille par défaut si null
+     * @param cursor le curseur de la page précédente, null pour la première page
+     * @return une Mono contenant la page de résultats
+     */
+    public Mono<PagePersonnes> recherche(String methode, String terme, Integer size, String cursor){
+        if (!supports(methode)) {
+            return unsupported(methode);
+        }
+        Mono<PagePersonnes> page = exact(methode, terme, size, cursor)
+                .switchIfEmpty(Mono.defer(() -> nearCache.recherche(methode, terme, size, cursor,
+                        () -> searchPage(methode, terme, size, cursor, personnes).map(PagePersonnes::new))));
+        return metrics.latency(methode, page);
     }
 
-    private Mono<List<Personne>> composed(MultiSearchRequest searchRequest) {
+    /**
+     * Recherche d'un NSS exact via l'index local: les documents candidats sont lus par username
+     * (cache local, get ou mget) et vérifiés, les entrées dont le document porte un autre NSS sont retirées de l'index.<br/>
+     * Un NSS désignant une seule personne, un candidat vérifié est le résultat complet. Les méthodes fuzzy,
+     * qui retournent aussi les numéros voisins, passent par elasticsearch.
+     * @return une Mono contenant la page des documents vérifiés, vide si la recherche doit passer par elasticsearch
+     * (méthode fuzzy, terme qui n'est pas un NSS, index désactivé ou en chargement, candidat introuvable,
+     * aucun document vérifié, plus de documents que la taille de page)
+     */
+    private Mono<PagePersonnes> exact(String methode, String terme, Integer size, String cursor) {
+        if (exactIndex == null || cursor != null || !exactIndex.isReady()
+                || COMPOSED.equals(methode) || !queryBuilderFactory.isExact(methode)) {
+            return Mono.empty();
+        }
+        long key = PersonneExactIndex.key(terme);
+        if (key < 0) {
+            return Mono.empty();
+        }
 
-        return Mono.<MultiSearchResponse>create(element ->{
-            //appel asynchrone via le client es
-            log.info("Async multisearch call");
-            client.multiSearchAsync(searchRequest, listenerToMonoElement(element));
-        })
-        .filter(resp ->{
-            //pas de reultats on ne mappe rien
-            log.info("Filter resulats, size : {}",resp.getResponses().length);
-            return resp.getResponses().length > 0;
-        })
-        .map(multiReponse -> {
+        List<String> userNames = exactIndex.find(key);
+        if (userNames.isEmpty() || userNames.size() > pageSize(size)) {
+            metrics.exact("miss");
+            return Mono.empty();
+        }
 
-            MultiSearchResponse.Item first = multiReponse.getResponses()[0];
-            log.info("First multisearch response {}",first.getResponse().getHits().totalHits);
-            MultiSearchResponse.Item second = multiReponse.getResponses()[1];
-            log.info("Second multisearch response {}",second.getResponse().getHits().totalHits);
+        Flux<Personne> candidates = userNames.size() == 1
+                ? findByUserName(userNames.get(0)).flux()
+                : findByUserNames(userNames);
+
+        return candidates
+                .collectList()
+                .flatMap(read -> {
+                    //un candidat introuvable peut n'être pas encore visible: seul un NSS modifié retire l'entrée
+                    List<Personne> found = new ArrayList<>(read.size());
+                    for (Personne doc : read) {
+                        if (PersonneExactIndex.matches(doc, key)) {
+                            found.add(doc);
+                        } else {
+                            exactIndex.remove(key, doc.getUsername());
+                        }
+                    }
+                    if (read.size() < userNames.size()) {
+                        metrics.exact("missing");
+                        return Mono.<PagePersonnes>empty();
+                    }
+                    if (found.isEmpty()) {
+                        metrics.exact("stale");
+                        return Mono.<PagePersonnes>empty();
+                    }
+                    metrics.exact("hit");
+                    return Mono.just(new PagePersonnes(found, found.size(), null));
+                });
+    }
 
-            Flux<SearchHit> firstFluxSearchHit = Flux.fromIterable(Arrays.asList(first.getResponse().getHits()
-                    .getHits()));
-            Flux<SearchHit> secondFluxSearchHit = Flux.fromIterable(Arrays.asList(second.getResponse().getHits()
-                    .getHits()));
+    /**
+     * Recherche paginée projetée, hors cache local: seuls les champs de la projection sont lus et décodés
+     * @param projection les champs lus, voir {@link #projection(List)}
+     * @return une Mono contenant la page de documents projetés
+     * @see #recherche(String, String, Integer, String)
+     */
+    public <T> Mono<Page<T>> recherche(String methode, String terme, Integer size, String cursor,
+                                       Projection<T> projection) {
+        if (!supports(methode)) {
+            return unsupported(methode);
+        }
+        return metrics.latency(methode, searchPage(methode, terme, size, cursor, projection));
+    }
 
+    /**
+     * La méthode est vérifiée avant d'être utilisée comme tag de métrique: une valeur quelconque de la requête
+     * créerait sinon un timer par valeur
+     */
+    private boolean supports(String methode) {
+        return COMPOSED.equals(methode) || queryBuilderFactory.supports(methode);
+    }
 
-            Flux<SearchHit> searchHitsFlux = Flux.concat(firstFluxSearchHit, secondFluxSearchHit);
+    private static <T> Mono<T> unsupported(String methode) {
+        return Mono.error(new IllegalArgumentException("methode name specified error : " + methode));
+    }
 
-            List<Personne> personnes = new ArrayList<>();
+    private <T> Mono<Page<T>> searchPage(String methode, String terme, Integer size, String cursor,
+                                         Projection<T> projection){
 
-            log.info("Async multisearch composed flux iteration");
-            searchHitsFlux
-                    .map(hit -> {
-                        try {
-                            log.info("Async multisearch composed flux iteration for serialzation:; {}",hit.getSourceAsString());
-                            return objectMapper.readValue(hit.getSourceAsString(), Personne.class);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                            return null;
-                        }
-                    })
-                    .subscribe(personnes::add);
+        log.debug("Search with methode : {}, terme: {}, size: {} and cursor: {}",methode,terme,size,cursor);
 
+        int pageSize = pageSize(size);
+        Object[] searchAfter = cursor == null ? null : SearchCursor.decode(cursor);
 
-            return personnes
-                    .stream()
-                    .distinct()
-                    .collect(Collectors.toList());
-        });
+        if (COMPOSED.equals(methode)) {
+            log.debug("composed search");
+            if (searchAfter != null) {
+                throw new IllegalArgumentException("cursor not supported with methode : " + methode);
+            }
+            return composed(composedSearchRequests(terme, ElasticSearchIndexes.PERSONNES.index(), pageSize, projection),
+                    pageSize, projection);
+        }
 
+        SearchRequest searchRequest = searchRequest(methode, terme, ElasticSearchIndexes.PERSONNES.index(),
+                pageSize, searchAfter, projection);
+        return search(searchRequest, methode, flightKey(methode, terme, pageSize, cursor, projection))
+                .map(resp -> page(resp, pageSize, methode, projection));
     }
 
+    /**
+     * Suggestions de saisie pour un préfixe, via le champ de complétion. Seuls les textes complétés
+     * et les usernames sont renvoyés, aucune source n'est lue.
+     * @param prefix le début de saisie
+     * @param fuzzy tolère des fautes de frappe dans le préfixe
+     * @param size le nombre de suggestions, taille par défaut si null
+     * @return une Mono contenant les suggestions, sans doublon de texte
+     */
+    public Mono<List<Suggestion>> suggest(String prefix, boolean fuzzy, Integer size) {
+        CompletionSuggestionBuilder completion = SuggestBuilders
+                .completionSuggestion(PersonneEncoder.SUGGEST_FIELD)
+                .size(pageSize(size))
+                .skipDuplicates(true);
+
+        if (fuzzy) {
+            completion.prefix(prefix, Fuzziness.AUTO);
+        } else {
+            completion.prefix(prefix);
+        }
 
-    private Mono<List<Personne>> wildCard(SearchRequest searchRequest) {
+        SearchRequest searchRequest = new SearchRequest()
+                .indices(PERSONNES.index())
+                .source(new SearchSourceBuilder()
+                        .size(0)
+                        .fetchSource(false)
+                        .suggest(new SuggestBuilder().addSuggestion(SUGGESTION, completion)));
 
-        return Mono.<SearchResponse>create(element ->
+        Mono<List<Suggestion>> suggestions = this
                 //appel asynchrone via le client es
-                client.searchAsync(searchRequest, listenerToMonoElement(element))
-        )
-        .filter(resp ->
-                //pas de reultats on ne mappe rien
-                resp.getHits().totalHits > 0
-        )
-        .map(map -> {
-
-            List<Personne> personnes = new ArrayList<>();
-
-            return Arrays.asList(map.getHits().getHits()).stream()
-                    .map(hit -> {
-                        log.info(hit.getSourceAsString());
-                        try {
-                            return objectMapper.readValue(hit.getSourceAsString(),Personne.class);
-                        } catch (IOException e) {
-                            log.error("IO Exception when deserialising hit :" + hit.getSourceAsString());
-                            return null;
-                        }
-                    })
-                    .collect(Collectors.toList());
-        });
-
+                .<SearchResponse>call(SUGGEST, listener -> client.searchAsync(searchRequest, listener))
+                .map(resp -> {
+                    CompletionSuggestion suggestion = resp.getSuggest().getSuggestion(SUGGESTION);
+
+                    return suggestion.getOptions()
+                            .stream()
+                            .map(option -> new Suggestion(
+                                    option.getText().string(),
+                                    option.getHit() == null ? null : option.getHit().getId(),
+                                    option.getScore()))
+                            .collect(Collectors.toList());
+                });
+
+        return metrics.latency(SUGGEST, suggestions);
     }
 
-    public Mono<List<Personne>> fuzzy(SearchRequest searchRequest) {
+    /**
+     * Exporte tous les documents correspondant à la recherche, sans limite de nombre.<br/>
+     * Le scroll est découpé en tranches lues en parallèle; chaque tranche ne demande sa page suivante
+     * qu'une fois la précédente consommée, la mémoire reste donc bornée quel que soit le nombre de hits.
+     * @param methode la méthode de recherche (fuzzy, wildcards, composed)
+     * @param terme le terme recherché, tous les documents si absent
+     * @return un flux des documents correspondants, le scroll étant lancé à la souscription
+     * @throws IllegalArgumentException si la méthode est inconnue
+     */
+    public Flux<Personne> export(String methode, String terme) {
+        if (!supports(methode)) {
+            throw new IllegalArgumentException("methode name specified error : " + methode);
+        }
+        ElasticSearchProperties.Export export = properties.getExport();
+        QueryBuilder query = exportQueryBuilder(methode, terme);
+        int slices = export.getSlices();
 
+        log.debug("Export with methode : {}, terme: {} and {} slices", methode, terme, slices);
 
-        return Mono.<SearchResponse>create(element ->
-            //appel asynchrone via le client es
-            client.searchAsync(searchRequest,
-                    listenerToMonoElement(element))
-        )
-        .filter(resp ->
-            //pas de reultats on ne mappe rien
-                resp.getHits().totalHits > 0
-        )
-        .map(map -> {
+        return Flux.range(0, slices)
+                .flatMap(slice -> scrollSlice(query, slice, slices, export, personnes), slices, 1);
+    }
 
-            List<Personne> personnes = new ArrayList<>();
+    private <T> Flux<T> scrollSlice(QueryBuilder query, int slice, int slices, ElasticSearchProperties.Export export,
+                                    Projection<T> projection) {
+        TimeValue keepAlive = TimeValue.timeValueSeconds(export.getKeepAliveSeconds());
+        int pageSize = export.getPageSize();
+
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(query)
+                .size(pageSize)
+                .sort("_doc")
+                .fetchSource(projection.fetchSource());
+        if (slices > 1) {
+            source.slice(new SliceBuilder(slice, slices));
+        }
+        SearchRequest searchRequest = new SearchRequest()
+                .indices(PERSONNES.index())
+                .scroll(keepAlive)
+                .source(source);
+
+        return Flux.using(
+                () -> new AtomicReference<String>(),
+                scrollId -> readLimiter
+                        .limit(this.<SearchResponse>async(listener -> client.searchAsync(searchRequest, listener)))
+                        .publishOn(decodeScheduler)
+                        .expand(resp -> {
+                            scrollId.set(resp.getScrollId());
+                            //page incomplète: la tranche est épuisée
+                            return resp.getHits().getHits().length < pageSize
+                                    ? Mono.empty()
+                                    : scroll(resp.getScrollId(), keepAlive);
+                        })
+                        .flatMapIterable(resp -> projection.decode(resp.getHits()), 1),
+                scrollId -> clearScroll(scrollId.get()));
+    }
 
-            return Arrays.asList(map.getHits().getHits()).stream()
-                    .map(hit -> {
-                        log.info(hit.getSourceAsString());
-                        try {
-                            return objectMapper.readValue(hit.getSourceAsString(),Personne.class);
-                        } catch (IOException e) {
-                            log.error("IO Exception when deserialising hit :" + hit.getSourceAsString());
-                            return null;
-                        }
-                    })
-                    .collect(Collectors.toList());
-
-           /* map.getHits().forEach(hit -> {
-                log.info(hit.getSourceAsString());
-                try {
-                    personnes.add(objectMapper.readValue(hit.getSourceAsString(),Personne.class));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
+    private Mono<SearchResponse> scroll(String scrollId, TimeValue keepAlive) {
+        return readLimiter
+                .limit(this.<SearchResponse>async(listener ->
+                        client.searchScrollAsync(new SearchScrollRequest(scrollId).scroll(keepAlive), listener)))
+                .publishOn(decodeScheduler);
+    }
 
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(scrollId);
+        client.clearScrollAsync(clearScrollRequest, ActionListener.wrap(
+                response -> log.debug("Scroll cleared: {}", response.isSucceeded()),
+                e -> log.warn("Unable to clear scroll", e)));
+    }
+
+    private QueryBuilder exportQueryBuilder(String methode, String terme) {
+        if (terme == null || terme.isEmpty()) {
+            return QueryBuilders.matchAllQuery();
+        }
+
+        if (COMPOSED.equals(methode)) {
+            return QueryBuilders.boolQuery()
+                    .should(queryBuilderFactory.wildCarsdQueryBuilder(terme))
+                    .should(queryBuilderFactory.fuzzyQueryBuilder(terme));
+        }
+        return queryBuilderFactory.queryBuilder(methode, terme);
+    }
 
-            return personnes;*/
+    /**
+     * Recherche composée: les recherches wildcards et fuzzy sont lancées en parallèle puis leurs classements
+     * fusionnés. L'échec d'une des deux recherches est toléré. Si le retour anticipé est activé, une recherche
+     * qui ramène seule assez de hits de confiance suffit: l'autre n'est pas attendue.<br/>
+     * Si toutes les recherches échouent et que l'une a été refusée par le limiteur, ce refus est propagé
+     * pour que l'appel soit délesté (429, 503) plutôt qu'en erreur.
+     */
+    private <T> Mono<Page<T>> composed(Map<String, SearchRequest> searchRequests, int size, Projection<T> projection) {
+        return Mono.defer(() -> {
+            AtomicReference<Throwable> overload = new AtomicReference<>();
+            return composed(searchRequests, size, projection, overload);
         });
     }
 
+    private <T> Mono<Page<T>> composed(Map<String, SearchRequest> searchRequests, int size, Projection<T> projection,
+                                       AtomicReference<Throwable> overload) {
+        ElasticSearchProperties.Composed composed = properties.getComposed();
+
+        return Flux.fromIterable(searchRequests.entrySet())
+                .flatMap(entry -> search(entry.getValue(), COMPOSED, entry.getKey())
+                        .onErrorResume(e -> {
+                            log.warn("Composed sub-search failed, ignored", e);
+                            if (e instanceof ElasticSearchOverloadedException) {
+                                overload.compareAndSet(null, e);
+                            }
+                            return Mono.empty();
+                        }))
+                .takeUntil(resp -> composed.isEarlyReturn()
+                        && RankFusion.isConfident(resp.getHits().getHits(), composed.getConfidentScore(), size))
+                .collectList()
+                .flatMap(responses -> {
+                    if (responses.isEmpty()) {
+                        return Mono.error(overload.get() != null
+                                ? overload.get()
+                                : new ElasticsearchException("All composed sub-searches failed"));
+                    }
+
+                    List<SearchHit[]> rankings = new ArrayList<>(responses.size());
+                    long total = 0;
+                    for (SearchResponse resp : responses) {
+                        rankings.add(resp.getHits().getHits());
+                        total = Math.max(total, resp.getHits().totalHits);
+                    }
+
+                    List<SearchHit> fused = rankFusion.fuse(rankings, size);
+                    metrics.sourceBytes(COMPOSED, projection.getName(), sourceBytes(fused));
+                    List<T> documents = metrics.decode(COMPOSED, () -> projection.decode(fused));
+
+                    return Mono.just(new Page<>(documents, total, null));
+                });
+    }
+
+    /**
+     * Les recherches identiques en vol partagent un seul appel
+     * @param searchRequest la requête de recherche
+     * @param operation la méthode de recherche, pour les métriques
+     * @param key la clé identifiant la recherche (méthode, terme et page), évitant de sérialiser la requête
+     */
+    private Mono<SearchResponse> search(SearchRequest searchRequest, String operation, String key) {
+        return searchFlights.execute(key, () -> this
+                //appel asynchrone via le client es
+                .<SearchResponse>read(operation, (node, listener) -> node.searchAsync(searchRequest, listener))
+                .doOnNext(resp -> metrics.hits(operation, resp)));
+    }
+
+    /**
+     * Une page pleine peut avoir une suite: le curseur reprend après son dernier hit
+     */
+    private <T> Page<T> page(SearchResponse resp, int pageSize, String methode, Projection<T> projection) {
+        SearchHit[] hits = resp.getHits().getHits();
+        String cursor = hits.length == pageSize && pageSize > 0
+                ? SearchCursor.encode(hits[hits.length - 1].getSortValues())
+                : null;
+
+        metrics.sourceBytes(methode, projection.getName(), sourceBytes(Arrays.asList(hits)));
+        List<T> documents = metrics.decode(methode, () -> projection.decode(resp.getHits()));
+        return new Page<>(documents, resp.getHits().totalHits, cursor);
+    }
+
+    private static long sourceBytes(List<SearchHit> hits) {
+        long bytes = 0;
+        for (SearchHit hit : hits) {
+            bytes += hit.getSourceRef() == null ? 0 : hit.getSourceRef().length();
+        }
+        return bytes;
+    }
+
+    private int pageSize(Integer size) {
+        ElasticSearchProperties.Search search = properties.getSearch();
+        if (size == null) {
+            return search.getDefaultSize();
+        }
+        if (size < 1 || size > search.getMaxSize()) {
+            throw new IllegalArgumentException("size specified error : " + size);
+        }
+        return size;
+    }
+
     /**
      * Indexe un élément de type {@code Personne}
      * @param doc le document à indéxer
      * @return une Mono contenant potentiellement la réponse
      */
     public Mono<IndexResponse> index(Personne doc) {
-        return indexDoc(doc)
+        return metrics.latency(INDEX, indexDoc(doc))
                 .compose(this::countSuccFail)
                 .compose(this::countConcurrent)
                 .compose(this::measureTime)
+                .doOnSuccess(response -> {
+                    written(Collections.singleton(doc.getUsername()));
+                    indexed(doc);
+                })
                 .doOnError(e -> log.error("Unable to index {}", doc, e));
     }
 
     /**
-     * Indexe un élément de type {@code Personne}
-     * @param doc le document à indéxer
-     * @return une Mono contenant potentiellement la réponse
+     * Indexe une liste d'éléments de type {@code Personne} en une requête _bulk.<br/>
+     * Le corps ndjson est encodé directement depuis les documents, compressé si {@code elasticsearch.bulk.gzip}.
+     * Les documents rejetés par elasticsearch sont renvoyés; la réponse contient le résultat final
+     * de chaque document, dans l'ordre de la liste, y compris ceux qui n'ont pu être sérialisés.
+     * @param docs les documents à indéxer
+     * @return une Mono contenant la réponse
      */
     public Mono<BulkResponse> bulkIndex(List<Personne> docs) {
-        return bulkIndexDocs(docs)
+        Mono<BulkResponse> response = documentBulkRetrier.execute(docs)
+                .doOnNext(metrics::bulkItems)
+                .doOnSuccess(bulkResponse -> {
+                    written(docs
+                            .stream()
+                            .map(Personne::getUsername)
+                            .collect(Collectors.toSet()));
+                    for (BulkItemResponse item : bulkResponse.getItems()) {
+                        if (!item.isFailed()) {
+                            indexed(docs.get(item.getItemId()));
+                        }
+                    }
+                });
+
+        return metrics.latency(BULK, response)
                 .doOnError(e -> log.error("Unable to bulkindex {}", docs, e));
     }
 
+    /**
+     * Indexe un flux d'éléments de type {@code Personne} par lots _bulk successifs.<br/>
+     * Les lots sont bornés en nombre de documents et en octets, et seul un nombre limité de lots est en vol:
+     * le flux source n'est consommé qu'au rythme des réponses d'elasticsearch.
+     * Un document qui ne peut être sérialisé n'est pas envoyé: il figure en échec dans la réponse de son lot.
+     * @param docs le flux de documents à indéxer
+     * @return un flux contenant la réponse de chaque lot
+     */
+    public Flux<BulkResponse> bulkIndex(Flux<Personne> docs) {
+        ElasticSearchProperties.Bulk bulk = properties.getBulk();
+
+        return Flux.defer(() -> {
+                    BulkBatchLimiter limiter = new BulkBatchLimiter(bulk.getMaxDocuments(), bulk.getMaxBytes());
+                    return docs
+                            .map(this::streamedDocument)
+                            .bufferUntil(document -> document.request != null
+                                    && limiter.startsNewBatch(document.request), true);
+                })
+                .flatMap(this::bulkIndexBatch, bulk.getConcurrency())
+                .doOnError(e -> log.error("Unable to stream bulkindex", e));
+    }
+
     private Mono<IndexResponse> countConcurrent(Mono<IndexResponse> mono) {
         return mono
                 .doOnSubscribe(s -> concurrent.increment())
@@ -255,10 +783,10 @@ public class ElasticSearchClient {
 
     private Mono<IndexResponse> measureTime(Mono<IndexResponse> mono) {
         return Mono
-                .fromCallable(System::currentTimeMillis)
+                .fromCallable(System::nanoTime)
                 .flatMap(time ->
                         mono.doOnSuccess(response ->
-                                indexTimer.record(System.currentTimeMillis() - time, TimeUnit.MILLISECONDS))
+                                indexTimer.record(System.nanoTime() - time, TimeUnit.NANOSECONDS))
                 );
     }
 
@@ -269,51 +797,260 @@ public class ElasticSearchClient {
     }
 
     private Mono<IndexResponse> indexDoc(Personne doc) {
-        return Mono.create(sink -> {
+        if (coalescer != null) {
+            return Mono.fromCallable(() -> indexRequest(doc)).flatMap(coalescer::index);
+        }
+        Mono<IndexResponse> response = call(INDEX, listener -> {
             try {
-                doIndex(doc, listenerToMonoElement(sink));
+                doIndex(doc, listener);
             } catch (JsonProcessingException e) {
-                sink.error(e);
+                listener.onFailure(e);
             }
         });
+        return reindexer.write(response, indexed -> Collections.singleton(indexed.getId()));
     }
-    private Mono<BulkResponse> bulkIndexDocs(List<Personne> docs) {
-        return Mono.create(sink -> {
+    /**
+     * Envoi d'un lot de documents via le client bas niveau, sans {@code BulkRequest} intermédiaire.
+     * Un document qui ne peut être sérialisé n'est pas envoyé: il figure en échec dans la réponse, à sa position
+     */
+    private Mono<BulkResponse> bulkDocuments(List<Personne> docs) {
+        return Mono.defer(() -> {
+            BulkBodyEncoder.BulkBody body;
             try {
-                doBulkIndex(docs, listenerToMonoElement(sink));
-            } catch (JsonProcessingException e) {
-                sink.error(e);
+                body = bulkEncoder.encode(docs, PERSONNES.index(), PERSONNES.type(), properties.getBulk().isGzip());
+            } catch (IOException e) {
+                return Mono.error(e);
             }
+
+            if (!body.getFailures().isEmpty()) {
+                metrics.bulkDropped("serialization", body.getFailures().size());
+            }
+            if (body.getPositions().isEmpty()) {
+                bulkBuffers.release(body.getBuffer());
+                return Mono.just(merge(docs, body, new BulkResponse(new BulkItemResponse[0], 0)));
+            }
+
+            Mono<BulkResponse> response = this.<Response>call(BULK, listener -> performBulk(body, listener))
+                    .map(ElasticSearchClient::parseBulkResponse)
+                    .map(parsed -> merge(docs, body, parsed));
+            return reindexer.write(response, ElasticSearchClient::acknowledged);
         });
     }
 
+    /**
+     * Le tampon du corps est rendu au pool une fois la requête terminée, le client ne le lisant plus
+     */
+    private void performBulk(BulkBodyEncoder.BulkBody body, ActionListener<Response> listener) {
+        BulkBufferPool.BulkBuffer buffer = body.getBuffer();
+        HttpEntity entity = new NByteArrayEntity(buffer.array(), 0, buffer.size(), NDJSON);
+        Header[] headers = body.isGzip()
+                ? new Header[]{new BasicHeader(HttpHeaders.CONTENT_ENCODING, "gzip")}
+                : new Header[0];
+
+        client.getLowLevelClient().performRequestAsync("POST", "/_bulk", Collections.emptyMap(), entity,
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        bulkBuffers.release(buffer);
+                        listener.onResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        bulkBuffers.release(buffer);
+                        listener.onFailure(e);
+                    }
+                }, headers);
+    }
 
-    private void doIndex(Personne doc, ActionListener<IndexResponse> listener) throws JsonProcessingException {
-        final IndexRequest indexRequest = new IndexRequest(PERSONNES.index(), PERSONNES.type(), doc.getUsername());
-        final String json = objectMapper.writeValueAsString(doc);
-        indexRequest.source(json, XContentType.JSON);
-        client.indexAsync(indexRequest, listener);
+    private static BulkResponse parseBulkResponse(Response response) {
+        try (XContentParser parser = XContentType.JSON.xContent()
+                .createParser(NamedXContentRegistry.EMPTY, response.getEntity().getContent())) {
+            return BulkResponse.fromXContent(parser);
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
     }
 
-    private void doBulkIndex(List<Personne> docs, ActionListener<BulkResponse> listener) throws
-            JsonProcessingException {
-        BulkRequest bulkRequest = new BulkRequest();
+    /**
+     * Replace les items de la réponse à la position de leur document, et les échecs de sérialisation à la leur
+     */
+    private static BulkResponse merge(List<Personne> docs, BulkBodyEncoder.BulkBody body, BulkResponse response) {
+        BulkItemResponse[] items = new BulkItemResponse[docs.size()];
+        BulkItemResponse[] sent = response.getItems();
+
+        for (int i = 0; i < sent.length; i++) {
+            int position = body.getPositions().get(i);
+            items[position] = sent[i].isFailed()
+                    ? BulkItemResponse.failure(position, sent[i].getOpType(), sent[i].getFailure())
+                    : BulkItemResponse.success(position, sent[i].getOpType(), sent[i].getResponse());
+        }
+        body.getFailures().forEach((position, e) -> items[position] = BulkItemResponse.failure(position,
+                DocWriteRequest.OpType.INDEX, new BulkItemResponse.Failure(
+                        PERSONNES.index(), PERSONNES.type(), docs.get(position).getUsername(), e)));
 
-        docs.forEach(doc -> {
+        return new BulkResponse(items, response.getTook().millis());
+    }
 
-            try {
+    /**
+     * Envoi d'un lot avec renvoi des documents rejetés, le cache local est invalidé une fois le lot terminé
+     */
+    private Mono<BulkResponse> bulkIndexRequests(List<IndexRequest> requests) {
+        return bulkRetrier.execute(requests)
+                .doOnNext(metrics::bulkItems)
+                .doOnSuccess(response -> written(requests
+                        .stream()
+                        .map(IndexRequest::id)
+                        .collect(Collectors.toSet())));
+    }
 
-                IndexRequest indexRequest = new IndexRequest(PERSONNES.index(), PERSONNES.type(), doc.getUsername());
-                String json = objectMapper.writeValueAsString(doc);
-                indexRequest.source(json, XContentType.JSON);
-                bulkRequest.add(indexRequest);
+    private StreamedDocument streamedDocument(Personne doc) {
+        try {
+            return new StreamedDocument(doc, encodedRequest(doc), null);
+        } catch (JsonProcessingException e) {
+            log.warn("Unable to serialize {}", doc.getUsername(), e);
+            return new StreamedDocument(doc, null, e);
+        }
+    }
 
-            } catch (JsonProcessingException e) {
-                e.printStackTrace();
+    /**
+     * Envoi d'un lot du flux, l'index exact n'est alimenté que des documents acquittés.
+     * Les items sont replacés à la position de leur document, les échecs de sérialisation à la leur.
+     */
+    private Mono<BulkResponse> bulkIndexBatch(List<StreamedDocument> batch) {
+        List<IndexRequest> requests = batch.stream()
+                .filter(document -> document.request != null)
+                .map(document -> document.request)
+                .collect(Collectors.toList());
+        if (requests.size() < batch.size()) {
+            metrics.bulkDropped("serialization", batch.size() - requests.size());
+        }
+
+        Mono<BulkResponse> sent = requests.isEmpty()
+                ? Mono.just(new BulkResponse(new BulkItemResponse[0], 0))
+                : bulkIndexRequests(requests);
+        return sent.map(response -> {
+            BulkItemResponse[] items = new BulkItemResponse[batch.size()];
+            Iterator<BulkItemResponse> responses = Arrays.asList(response.getItems()).iterator();
+
+            for (int position = 0; position < batch.size(); position++) {
+                StreamedDocument document = batch.get(position);
+                if (document.request == null) {
+                    items[position] = BulkItemResponse.failure(position, DocWriteRequest.OpType.INDEX,
+                            new BulkItemResponse.Failure(PERSONNES.index(), PERSONNES.type(),
+                                    document.doc.getUsername(), document.failure));
+                    continue;
+                }
+                BulkItemResponse item = responses.next();
+                if (item.isFailed()) {
+                    items[position] = BulkItemResponse.failure(position, item.getOpType(), item.getFailure());
+                } else {
+                    items[position] = BulkItemResponse.success(position, item.getOpType(), item.getResponse());
+                    indexed(document.doc);
+                }
             }
+            return new BulkResponse(items, response.getTook().millis());
         });
+    }
+
+    private void indexed(Personne doc) {
+        if (exactIndex != null) {
+            exactIndex.put(doc);
+        }
+    }
+
+    /**
+     * Documents écrits: le cache local est invalidé.
+     * Les écritures à rejouer d'un reindex sont relevées par {@link IndexReindexer#write}, à chaque envoi.
+     */
+    private void written(Set<String> userNames) {
+        nearCache.invalidateAll(userNames);
+    }
+
+    private Mono<BulkResponse> bulk(List<IndexRequest> requests) {
+        Mono<BulkResponse> response = call(BULK, listener -> {
+            BulkRequest bulkRequest = new BulkRequest();
+            requests.forEach(bulkRequest::add);
+            client.bulkAsync(bulkRequest, listener);
+        });
+        return reindexer.write(response, ElasticSearchClient::acknowledged);
+    }
+
+    /**
+     * @return les ids des documents acquittés d'un lot
+     */
+    private static Set<String> acknowledged(BulkResponse response) {
+        Set<String> ids = new HashSet<>();
+        for (BulkItemResponse item : response.getItems()) {
+            if (!item.isFailed()) {
+                ids.add(item.getId());
+            }
+        }
+        return ids;
+    }
+
+    private IndexRequest indexRequest(Personne doc) {
+        try {
+            return encodedRequest(doc);
+        } catch (JsonProcessingException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private IndexRequest encodedRequest(Personne doc) throws JsonProcessingException {
+        return new IndexRequest(PERSONNES.index(), PERSONNES.type(), doc.getUsername())
+                .source(encoder.encode(doc), XContentType.JSON);
+    }
+
+    private void doIndex(Personne doc, ActionListener<IndexResponse> listener) throws JsonProcessingException {
+        final IndexRequest indexRequest = new IndexRequest(PERSONNES.index(), PERSONNES.type(), doc.getUsername());
+        indexRequest.source(encoder.encode(doc), XContentType.JSON);
+        client.indexAsync(indexRequest, listener);
+    }
 
-        client.bulkAsync(bulkRequest,listener);
+    /**
+     * Appel mesuré au client es, soumis à la limite de concurrence des lectures ou des écritures.
+     * La réponse est ensuite traitée sur le scheduler de décodage:
+     * un décodage lent ne bloque pas les threads IO du client, qui restent dédiés aux échanges réseau.
+     * @param operation l'opération, pour les métriques
+     * @param call l'appel asynchrone, recevant le listener à notifier
+     * @param <T> le type de la réponse
+     * @return une Mono contenant la réponse, émise sur le scheduler de décodage,
+     * ou une {@link ElasticSearchOverloadedException} si la limite est atteinte
+     */
+    private <T> Mono<T> call(String operation, Consumer<ActionListener<T>> call) {
+        ConcurrencyLimiter limiter = INDEX.equals(operation) || BULK.equals(operation) ? writeLimiter : readLimiter;
+
+        return limiter
+                .limit(metrics.roundTrip(operation, async(call)))
+                .publishOn(decodeScheduler);
+    }
+
+    /**
+     * Lecture idempotente: envoyée au noeud choisi par le {@link NodeRouter} s'il est activé,
+     * via le client principal sinon
+     * @param operation l'opération, pour les métriques
+     * @param call l'appel asynchrone, recevant le client du noeud et le listener à notifier
+     */
+    private <T> Mono<T> read(String operation, BiConsumer<RestHighLevelClient, ActionListener<T>> call) {
+        if (nodeRouter == null) {
+            return call(operation, listener -> call.accept(client, listener));
+        }
+        Mono<T> routed = nodeRouter.route(node -> this.<T>async(listener -> call.accept(node, listener)));
+
+        return readLimiter
+                .limit(metrics.roundTrip(operation, routed))
+                .publishOn(decodeScheduler);
+    }
+
+    /**
+     * Pont entre un appel asynchrone du client es et une Mono: l'appel est effectué à la souscription.
+     * @param call l'appel asynchrone, recevant le listener à notifier
+     * @param <T> le type de la réponse
+     * @return une Mono contenant la réponse
+     */
+    private <T> Mono<T> async(Consumer<ActionListener<T>> call) {
+        return Mono.create(element -> call.accept(listenerToMonoElement(element)));
     }
 
     /**
@@ -338,36 +1075,56 @@ public class ElasticSearchClient {
         };
     }
 
-    private SearchRequest wildCardsSearchRequest(String terme, String index) {
+    private SearchRequest searchRequest(String methode, String terme, String index, int size, Object[] searchAfter,
+                                        Projection<?> projection) {
 
-        QueryBuilder wildCardQueryBuilder = QueryBuilderFactory.wildCarsdQueryBuilder(terme);
+        QueryBuilder queryBuilder = queryBuilderFactory.queryBuilder(methode, terme);
 
         return new SearchRequest()
                 .indices(index)
-                .source(new SearchSourceBuilder().query(wildCardQueryBuilder).from(0).size(5));
+                .source(pagedSource(queryBuilder, size, searchAfter).fetchSource(projection.fetchSource()));
 
     }
 
-    private MultiSearchRequest composedSearchRequest(String terme, String index) {
-
-        MultiSearchRequest multiSearchRequest  = new MultiSearchRequest();
-        multiSearchRequest.add(wildCardsSearchRequest(terme,index));
-        multiSearchRequest.add(fuzzySearchRequest(terme,index));
+    private Map<String, SearchRequest> composedSearchRequests(String terme, String index, int size,
+                                                              Projection<?> projection) {
+        Map<String, SearchRequest> searchRequests = new LinkedHashMap<>();
+        searchRequests.put(flightKey(QueryBuilderFactory.WILDCARDS, terme, size, null, projection),
+                searchRequest(QueryBuilderFactory.WILDCARDS, terme, index, size, null, projection));
+        searchRequests.put(flightKey(QueryBuilderFactory.FUZZY, terme, size, null, projection),
+                searchRequest(QueryBuilderFactory.FUZZY, terme, index, size, null, projection));
+        return searchRequests;
+    }
 
-        return multiSearchRequest;
+    private static String flightKey(String methode, String terme, int size, String cursor, Projection<?> projection) {
+        return methode + "/" + size + "/" + cursor + "/" + projection.key() + "/" + terme;
     }
 
+    /**
+     * Tri stable par score puis username (unique): condition nécessaire à {@code search_after}
+     */
+    private SearchSourceBuilder pagedSource(QueryBuilder query, int size, Object[] searchAfter) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(query)
+                .size(size)
+                .sort(SortBuilders.scoreSort())
+                .sort(SortBuilders.fieldSort(USERNAME_SORT_FIELD).order(SortOrder.ASC));
+
+        if (searchAfter != null) {
+            source.searchAfter(searchAfter);
+        }
+        return source;
+    }
 
-    private SearchRequest fuzzySearchRequest(String terme, String index){
-
-        QueryBuilder fuzzyCardQueryBuilder = QueryBuilderFactory.fuzzyQueryBuilder(terme);
-
-        return new SearchRequest()
-                .indices(index)
-                .source(new SearchSourceBuilder().query(fuzzyCardQueryBuilder).from(0).size(5));
 
 
+    /**
+     * Document du flux d'indexation, avec sa requête ou l'échec de sa sérialisation
+     */
+    @RequiredArgsConstructor
+    private static final class StreamedDocument {
+        private final Personne doc;
+        private final IndexRequest request;
+        private final Exception failure;
     }
-
-
 }
@@ -0,0 +1,154 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Gestion de la définition des index (settings et mappings) par le service.<br/>
+ * Le service lit et écrit via un alias ({@link ElasticSearchIndexes#index()}), qui désigne un index versionné
+ * {@code <alias>_<horodatage>}. Au démarrage, avant que le serveur n'accepte des requêtes,
+ * un index absent est créé depuis sa définition, avec son alias;
+ * un index existant est comparé à sa définition et un avertissement est émis si des champs manquent
+ * (un reindex est alors nécessaire, voir {@link IndexReindexer}).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ElasticSearchIndexManager {
+
+    private final RestHighLevelClient client;
+    private final ObjectMapper objectMapper;
+
+    private static final DateTimeFormatter VERSION = DateTimeFormatter.ofPattern("yyyyMMddHHmmss")
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * À l'initialisation du bean: le serveur web n'est démarré qu'une fois le contexte initialisé,
+     * aucune requête ni traitement de démarrage ({@link ApplicationReadyEvent}) ne précède donc les index
+     */
+    @PostConstruct
+    public void createOrVerifyIndexes() {
+        for (ElasticSearchIndexes index : ElasticSearchIndexes.values()) {
+            try {
+                createOrVerify(index);
+            } catch (IOException e) {
+                log.error("Unable to create or verify index {}", index.index(), e);
+            }
+        }
+    }
+
+    void createOrVerify(ElasticSearchIndexes index) throws IOException {
+        RestClient restClient = client.getLowLevelClient();
+        String definition = definition(index);
+
+        Response exists = restClient.performRequest("HEAD", "/" + index.index());
+
+        if (exists.getStatusLine().getStatusCode() == 404) {
+            String version = createVersion(index, true, Collections.emptyMap());
+            log.info("Index {} created behind alias {}", version, index.index());
+            return;
+        }
+
+        Response alias = restClient.performRequest("HEAD", "/_alias/" + index.index());
+        if (alias.getStatusLine().getStatusCode() == 404) {
+            log.warn("Index {} is not an alias: a reindex moves it behind one", index.index());
+        }
+
+        Response mapping = restClient.performRequest("GET", "/" + index.index() + "/_mapping/" + index.type());
+        Set<String> missing = missingFields(index, definition, mapping);
+
+        if (missing.isEmpty()) {
+            log.info("Index {} mapping verified", index.index());
+        } else {
+            log.warn("Index {} mapping is out of date, missing fields {}: a reindex is required",
+                    index.index(), missing);
+        }
+    }
+
+    /**
+     * Crée une nouvelle version de l'index depuis sa définition
+     * @param aliased ajoute l'alias de l'index à la nouvelle version
+     * @param settings settings ajoutés à ceux de la définition, à plat ({@code index.refresh_interval}...)
+     * @return le nom de l'index créé, {@code <alias>_<horodatage>}
+     */
+    public String createVersion(ElasticSearchIndexes index, boolean aliased, Map<String, ?> settings)
+            throws IOException {
+        String name = index.index() + "_" + VERSION.format(Instant.now());
+        ObjectNode definition = (ObjectNode) objectMapper.readTree(definition(index));
+
+        ObjectNode indexSettings = definition.with("settings");
+        settings.forEach((key, value) -> indexSettings.set(key, objectMapper.valueToTree(value)));
+        if (aliased) {
+            definition.with("aliases").set(index.index(), objectMapper.createObjectNode());
+        }
+
+        client.getLowLevelClient().performRequest("PUT", "/" + name, Collections.emptyMap(),
+                new NStringEntity(objectMapper.writeValueAsString(definition), ContentType.APPLICATION_JSON));
+        return name;
+    }
+
+    /**
+     * @return le contenu JSON de la définition de l'index
+     */
+    public String definition(ElasticSearchIndexes index) throws IOException {
+        try (InputStream in = new ClassPathResource(index.definition()).getInputStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private Set<String> missingFields(ElasticSearchIndexes index, String definition, Response mapping)
+            throws IOException {
+        JsonNode expected = objectMapper.readTree(definition).path("mappings").path(index.type());
+
+        //la réponse est indexée par le nom de l'index physique, qui peut différer de l'alias
+        JsonNode actual = objectMapper.readTree(mapping.getEntity().getContent());
+        Iterator<JsonNode> indexes = actual.elements();
+        JsonNode actualMapping = indexes.hasNext()
+                ? indexes.next().path("mappings").path(index.type())
+                : objectMapper.createObjectNode();
+
+        Set<String> missing = fieldPaths(expected, "");
+        missing.removeAll(fieldPaths(actualMapping, ""));
+        return missing;
+    }
+
+    private static Set<String> fieldPaths(JsonNode node, String prefix) {
+        Set<String> paths = new TreeSet<>();
+        for (String container : new String[]{"properties", "fields"}) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.path(container).fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String path = prefix + field.getKey();
+                paths.add(path);
+                paths.addAll(fieldPaths(field.getValue(), path + "."));
+            }
+        }
+        return paths;
+    }
+}
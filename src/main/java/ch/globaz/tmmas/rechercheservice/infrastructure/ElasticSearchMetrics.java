@@ -0,0 +1,141 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Métriques des appels elasticsearch, par opération (fuzzy, wildcards, composed, get, mget, bulk, index...).<br/>
+ * - es.latency: durée de bout en bout de l'opération, cache et décodage compris<br/>
+ * - es.roundtrip: durée d'un appel au client es, de l'envoi à la réponse<br/>
+ * - es.took: durée rapportée par elasticsearch ({@code took})<br/>
+ * - es.transport: part de l'appel hors elasticsearch (roundtrip - took)<br/>
+ * - es.decode: durée du décodage des documents<br/>
+ * - es.hits: distribution du nombre total de hits<br/>
+ * - es.source.bytes: octets source lus par réponse, par projection (personne, resume, fields)<br/>
+ * - es.bulk.items: items de bulk par résultat final (success, failure)<br/>
+ * - es.bulk.retried: items de bulk renvoyés après un rejet<br/>
+ * - es.bulk.dropped: documents non indexés, par raison (retries_exhausted, serialization)<br/>
+ * - es.exact.lookups: recherches exactes par l'index local, par résultat (hit, miss, missing, stale)
+ */
+class ElasticSearchMetrics {
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> hits = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> sourceBytes = new ConcurrentHashMap<>();
+    private final Counter bulkSuccesses = Metrics.counter("es.bulk.items", "result", "success");
+    private final Counter bulkFailures = Metrics.counter("es.bulk.items", "result", "failure");
+    private final Counter bulkRetried = Metrics.counter("es.bulk.retried");
+    private final Map<String, Counter> bulkDropped = new ConcurrentHashMap<>();
+    private final Map<String, Counter> exactLookups = new ConcurrentHashMap<>();
+
+    /**
+     * Mesure la durée de bout en bout d'une opération
+     */
+    <T> Mono<T> latency(String operation, Mono<T> mono) {
+        return timed(timer("es.latency", operation), mono);
+    }
+
+    /**
+     * Mesure un appel au client es, et répartit sa durée entre elasticsearch et le transport
+     * lorsque la réponse rapporte son {@code took}
+     */
+    <T> Mono<T> roundTrip(String operation, Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnNext(response -> {
+                long roundTrip = System.nanoTime() - start;
+                timer("es.roundtrip", operation).record(roundTrip, TimeUnit.NANOSECONDS);
+
+                TimeValue took = took(response);
+                if (took != null) {
+                    long tookNanos = took.nanos();
+                    timer("es.took", operation).record(tookNanos, TimeUnit.NANOSECONDS);
+                    timer("es.transport", operation).record(Math.max(0, roundTrip - tookNanos), TimeUnit.NANOSECONDS);
+                }
+            });
+        });
+    }
+
+    <T> T decode(String operation, Supplier<T> decoding) {
+        return timer("es.decode", operation).record(decoding);
+    }
+
+    void hits(String operation, SearchResponse response) {
+        hits.computeIfAbsent(operation, op -> DistributionSummary
+                .builder("es.hits")
+                .tag("operation", op)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry))
+                .record(response.getHits().totalHits);
+    }
+
+    void sourceBytes(String operation, String projection, long bytes) {
+        sourceBytes.computeIfAbsent(operation + "/" + projection, key -> DistributionSummary
+                .builder("es.source.bytes")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .tag("projection", projection)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry))
+                .record(bytes);
+    }
+
+    void bulkItems(BulkResponse response) {
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed()) {
+                bulkFailures.increment();
+            } else {
+                bulkSuccesses.increment();
+            }
+        }
+    }
+
+    void bulkRetried(int items) {
+        bulkRetried.increment(items);
+    }
+
+    void bulkDropped(String reason, int documents) {
+        bulkDropped.computeIfAbsent(reason, r -> Metrics.counter("es.bulk.dropped", "reason", r)).increment(documents);
+    }
+
+    void exact(String result) {
+        exactLookups.computeIfAbsent(result, r -> Metrics.counter("es.exact.lookups", "result", r)).increment();
+    }
+
+    private <T> Mono<T> timed(Timer timer, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doOnSuccessOrError((value, e) -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private Timer timer(String name, String operation) {
+        return timers.computeIfAbsent(name + "/" + operation, key -> Timer
+                .builder(name)
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry));
+    }
+
+    private static TimeValue took(Object response) {
+        if (response instanceof SearchResponse) {
+            return ((SearchResponse) response).getTook();
+        }
+        if (response instanceof BulkResponse) {
+            return ((BulkResponse) response).getTook();
+        }
+        return null;
+    }
+}
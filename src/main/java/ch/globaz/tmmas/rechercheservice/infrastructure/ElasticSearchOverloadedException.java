@@ -0,0 +1,29 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import lombok.Getter;
+
+/**
+ * Appel elasticsearch refusé par le limiteur de concurrence, sans avoir été envoyé.<br/>
+ * L'appelant peut réessayer après {@link #getRetryAfterSeconds()}.
+ */
+@Getter
+public class ElasticSearchOverloadedException extends RuntimeException {
+
+    public enum Reason {
+        /** la file d'attente est pleine: l'appel est rejeté immédiatement */
+        REJECTED,
+        /** l'appel a attendu une place trop longtemps */
+        TIMEOUT
+    }
+
+    private final String limiter;
+    private final Reason reason;
+    private final long retryAfterSeconds;
+
+    ElasticSearchOverloadedException(String limiter, Reason reason, long retryAfterSeconds) {
+        super("Elasticsearch " + limiter + " limit reached: " + reason.name().toLowerCase());
+        this.limiter = limiter;
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
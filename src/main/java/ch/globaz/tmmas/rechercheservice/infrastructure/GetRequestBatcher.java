@@ -0,0 +1,135 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Regroupe les lectures par id concurrentes en requêtes _mget.<br/>
+ * Les lectures arrivant dans une courte fenêtre sont envoyées ensemble, chaque id n'étant demandé
+ * qu'une fois; la réponse de chaque document est ensuite redistribuée à ses appelants.<br/>
+ * Si le regroupement s'arrête (arrêt du service), les lectures en attente et les suivantes échouent.
+ */
+@Slf4j
+class GetRequestBatcher {
+
+    private final UnicastProcessor<PendingGet> processor = UnicastProcessor.create();
+    private final FluxSink<PendingGet> pending = processor.sink();
+    private final Disposable subscription;
+    /** lectures dont la réponse n'est pas encore transmise */
+    private final Set<PendingGet> waiting = ConcurrentHashMap.newKeySet();
+    private volatile Throwable terminated;
+
+    /**
+     * @param multiGet l'envoi d'une lecture groupée des ids
+     * @param maxDocuments nombre maximal de lectures par lot
+     * @param maxDelay délai maximal d'attente d'une lecture avant l'envoi de son lot
+     */
+    GetRequestBatcher(Function<List<String>, Mono<MultiGetResponse>> multiGet, int maxDocuments, Duration maxDelay) {
+        this.subscription = processor
+                .bufferTimeout(maxDocuments, maxDelay)
+                //sans demande en aval, bufferTimeout échouerait à l'expiration du délai
+                .onBackpressureBuffer()
+                .flatMap(batch -> flush(multiGet, batch))
+                .subscribe(null, e -> {
+                            log.error("Get batching stopped", e);
+                            terminate(e);
+                        }, () -> terminate(disposed()));
+    }
+
+    /**
+     * @param id l'id du document à lire
+     * @return une Mono contenant la réponse du document une fois son lot traité
+     */
+    Mono<GetResponse> get(String id) {
+        return Mono.create(sink -> {
+            PendingGet get = new PendingGet(id, sink);
+            waiting.add(get);
+            pending.next(get);
+            //regroupement arrêté entre-temps: la lecture ne sera jamais traitée
+            Throwable error = terminated;
+            if (error != null) {
+                failWaiting(error);
+            }
+        });
+    }
+
+    void dispose() {
+        pending.complete();
+        subscription.dispose();
+        terminate(disposed());
+    }
+
+    private Mono<Void> flush(Function<List<String>, Mono<MultiGetResponse>> multiGet, List<PendingGet> batch) {
+        Map<String, List<PendingGet>> getsById = new LinkedHashMap<>();
+        batch.forEach(get -> getsById.computeIfAbsent(get.getId(), id -> new ArrayList<>()).add(get));
+
+        log.debug("Batched mget of {} ids for {} gets", getsById.size(), batch.size());
+
+        return multiGet.apply(new ArrayList<>(getsById.keySet()))
+                .doOnNext(response -> complete(getsById, response))
+                .doOnError(e -> batch.forEach(get -> get.error(e)))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private void complete(Map<String, List<PendingGet>> getsById, MultiGetResponse response) {
+        for (MultiGetItemResponse item : response.getResponses()) {
+            List<PendingGet> gets = getsById.getOrDefault(item.getId(), Collections.emptyList());
+
+            if (item.isFailed()) {
+                gets.forEach(get -> get.error(item.getFailure().getFailure()));
+            } else {
+                gets.forEach(get -> get.success(item.getResponse()));
+            }
+        }
+    }
+
+    private static IllegalStateException disposed() {
+        return new IllegalStateException("Get batcher disposed");
+    }
+
+    private void terminate(Throwable error) {
+        terminated = error;
+        failWaiting(error);
+    }
+
+    private void failWaiting(Throwable error) {
+        waiting.forEach(get -> get.error(error));
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    private class PendingGet {
+        private final String id;
+        private final MonoSink<GetResponse> sink;
+
+        private void success(GetResponse response) {
+            waiting.remove(this);
+            sink.success(response);
+        }
+
+        private void error(Throwable error) {
+            waiting.remove(this);
+            sink.error(error);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes;
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Reindex sans interruption d'un index vers une nouvelle version, créée depuis la définition courante.<br/>
+ * 1. la nouvelle version est créée sans refresh ni réplicas<br/>
+ * 2. les documents sont copiés par un _reindex parallèle (sliced), suivi jusqu'à sa fin<br/>
+ * 3. refresh et réplicas de la nouvelle version sont rétablis<br/>
+ * 4. les documents écrits par le service pendant la copie sont relus dans l'ancienne version et rejoués<br/>
+ * 5. l'alias est basculé atomiquement sur la nouvelle version, puis les écritures encore en vol
+ * vers l'ancienne version sont rejouées une dernière fois.<br/>
+ * Copie et rejeu conservent les versions des documents (versions externes): un document plus ancien
+ * n'écrase jamais un document plus récent, quel que soit l'ordre d'arrivée.<br/>
+ * Un index concret (sans alias) ne peut coexister avec l'alias de même nom: il est supprimé par la bascule,
+ * sans retour arrière possible, et sa migration doit donc être autorisée ({@code migrateConcreteIndex}).
+ * Les écritures du service sont alors suspendues pendant le dernier rejeu et la bascule, puis reprises
+ * vers l'alias.<br/>
+ * Seules les écritures passant par cette instance du service sont rejouées.<br/>
+ * Métriques: es.reindex.progress (documents copiés / total), es.reindex.copied, es.reindex.throughput
+ * (documents copiés par seconde), es.reindex.pending (écritures à rejouer) et es.reindex.replayed.
+ */
+@Slf4j
+@Component
+public class IndexReindexer {
+
+    private static final Map<String, String> NO_PARAMS = Collections.emptyMap();
+    private static final Duration WRITES_POLL = Duration.ofMillis(10);
+
+    private final RestHighLevelClient client;
+    private final ObjectMapper objectMapper;
+    private final ElasticSearchIndexManager indexManager;
+    private final BulkLoadSessions loadSessions;
+    private final ElasticSearchProperties.Reindex properties;
+
+    /** ids des documents écrits par le service depuis le début de la copie, à rejouer */
+    private final Queue<String> written = new ConcurrentLinkedQueue<>();
+    private volatile boolean recording;
+    private final AtomicReference<Status> current = new AtomicReference<>();
+    /** écritures du service en vol, attendues avant la bascule d'un index concret */
+    private final AtomicInteger writesInFlight = new AtomicInteger();
+    /** écritures suspendues jusqu'à la fin de la bascule d'un index concret, null si elles ne le sont pas */
+    private volatile MonoProcessor<Void> writeGate;
+    private final Counter replayed = Metrics.counter("es.reindex.replayed");
+
+    public IndexReindexer(RestHighLevelClient client, ObjectMapper objectMapper, ElasticSearchIndexManager indexManager,
+                          BulkLoadSessions loadSessions, ElasticSearchProperties properties) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.indexManager = indexManager;
+        this.loadSessions = loadSessions;
+        this.properties = properties.getReindex();
+
+        Metrics.gauge("es.reindex.progress", this, status(Status::getProgress));
+        Metrics.gauge("es.reindex.copied", this, status(Status::getCopied));
+        Metrics.gauge("es.reindex.throughput", this, status(Status::getThroughput));
+        Metrics.gauge("es.reindex.pending", this, reindexer -> reindexer.written.size());
+    }
+
+    /**
+     * Démarre le reindex de l'index; la copie, le rejeu et la bascule se poursuivent en arrière-plan.
+     * Refusé ({@link IllegalStateException}) si un reindex ou une session de chargement est en cours,
+     * ou si l'index est concret et que sa migration n'est pas autorisée.
+     * @return une Mono contenant l'état du reindex démarré
+     */
+    public Mono<Status> start(ElasticSearchIndexes index) {
+        return Mono.defer(() -> {
+            Status previous = current.get();
+            Status status = new Status(index.index());
+            if ((previous != null && previous.isRunning()) || !current.compareAndSet(previous, status)) {
+                return Mono.error(new IllegalStateException("A reindex is already running on " + index.index()));
+            }
+
+            return loadSessions.find(index.index())
+                    .flatMap(session -> Mono.<String>error(new IllegalStateException(
+                            "A bulk load session is running on " + index.index())))
+                    .switchIfEmpty(source(index))
+                    .flatMap(source -> index.index().equals(source) && !properties.isMigrateConcreteIndex()
+                            ? Mono.<String>error(new IllegalStateException("Index " + source + " is not an alias:"
+                                    + " its migration deletes it, enable elasticsearch.reindex.migrateConcreteIndex"))
+                            : Mono.just(source))
+                    .doOnNext(source -> {
+                        status.setSource(source);
+                        run(index, status).subscribe();
+                    })
+                    .doOnError(status::failed)
+                    .thenReturn(status);
+        });
+    }
+
+    /**
+     * @return l'état du reindex en cours ou du dernier reindex, vide si aucun
+     */
+    public Mono<Status> status() {
+        return Mono.justOrEmpty(current.get());
+    }
+
+    /**
+     * Écritures réussies du service, à rejouer si un reindex est en cours
+     * @param ids les ids des documents écrits
+     */
+    private void written(Collection<String> ids) {
+        if (recording) {
+            written.addAll(ids);
+        }
+    }
+
+    /**
+     * Écriture du service, suspendue pendant la bascule d'un index concret.<br/>
+     * Les documents acquittés sont relevés avant que l'écriture ne soit plus comptée en vol: une bascule
+     * qui n'attend plus d'écriture, ou un rejeu qui suit la bascule, les trouve donc à rejouer.
+     * @param call l'écriture, souscrite une fois les écritures permises
+     * @param acknowledged les ids des documents acquittés par la réponse
+     */
+    <T> Mono<T> write(Mono<T> call, Function<T, Collection<String>> acknowledged) {
+        return Mono.defer(() -> {
+            //compté avant de lire la barrière: une écriture passée avant sa fermeture est toujours attendue
+            writesInFlight.incrementAndGet();
+            MonoProcessor<Void> gate = writeGate;
+            if (gate != null) {
+                writesInFlight.decrementAndGet();
+                return gate.then(write(call, acknowledged));
+            }
+            return call
+                    .doOnNext(response -> written(acknowledged.apply(response)))
+                    .doFinally(signal -> writesInFlight.decrementAndGet());
+        });
+    }
+
+    private Mono<Void> run(ElasticSearchIndexes index, Status status) {
+        Map<String, Object> loading = ImmutableMap.of("index.refresh_interval", "-1", "index.number_of_replicas", 0);
+
+        return Mono.fromCallable(() -> indexManager.createVersion(index, false, loading))
+                .subscribeOn(Schedulers.elastic())
+                .doOnNext(target -> {
+                    log.info("Reindex of {} from {} into {} started", index.index(), status.getSource(), target);
+                    status.setTarget(target);
+                    written.clear();
+                    recording = true;
+                })
+                .flatMap(target -> copy(status))
+                .then(Mono.defer(() -> restoreSettings(status)))
+                .then(Mono.defer(() -> {
+                    status.setState(State.REPLAYING);
+                    return replay(index, status, properties.getReplayPasses());
+                }))
+                .then(Mono.defer(() -> status.isLegacy() ? swapConcrete(index, status) : swapAlias(index, status)))
+                .then(Mono.defer(() -> properties.isDeleteSource() && !status.isLegacy()
+                        ? perform("DELETE", "/" + status.getSource(), NO_PARAMS, null).then()
+                        : Mono.<Void>empty()))
+                .doOnSuccess(v -> {
+                    status.completed();
+                    log.info("Reindex of {} into {} completed: {} documents copied, {} replayed",
+                            index.index(), status.getTarget(), status.getCopied(), status.getReplayed());
+                })
+                .onErrorResume(e -> {
+                    log.error("Reindex of {} into {} failed", index.index(), status.getTarget(), e);
+                    return cleanup(status).doFinally(signal -> status.failed(e));
+                })
+                .doFinally(signal -> {
+                    recording = false;
+                    written.clear();
+                    openWrites();
+                });
+    }
+
+    /**
+     * Bascule de l'alias, puis rejeu des écritures encore en vol vers l'ancienne version
+     */
+    private Mono<Void> swapAlias(ElasticSearchIndexes index, Status status) {
+        return swap(index, status)
+                .then(Mono.delay(Duration.ofMillis(properties.getSwapGraceMillis())))
+                .then(Mono.defer(() -> replay(index, status, 1)));
+    }
+
+    /**
+     * L'index concret étant supprimé par la bascule, aucune écriture ne peut y arriver après le dernier rejeu:
+     * les écritures sont suspendues, celles en vol attendues, puis rejouées avant la bascule
+     */
+    private Mono<Void> swapConcrete(ElasticSearchIndexes index, Status status) {
+        return Mono.defer(() -> {
+                    writeGate = MonoProcessor.create();
+                    log.info("Writes to {} suspended for the swap", index.index());
+                    return Mono.delay(WRITES_POLL)
+                            .repeat()
+                            .takeUntil(tick -> writesInFlight.get() == 0)
+                            .then();
+                })
+                .then(Mono.defer(() -> replay(index, status, Integer.MAX_VALUE)))
+                .then(Mono.defer(() -> swap(index, status)))
+                .doFinally(signal -> openWrites());
+    }
+
+    private void openWrites() {
+        MonoProcessor<Void> gate = writeGate;
+        if (gate != null) {
+            writeGate = null;
+            gate.onComplete();
+            log.info("Writes resumed");
+        }
+    }
+
+    /**
+     * @return le nom de l'index désigné par l'alias, ou celui de l'index concret s'il n'y a pas d'alias
+     */
+    private Mono<String> source(ElasticSearchIndexes index) {
+        return perform("GET", "/_alias/" + index.index(), ImmutableMap.of("ignore", "404"), null)
+                .flatMap(response -> {
+                    if (response.getStatusLine().getStatusCode() == 404) {
+                        return perform("HEAD", "/" + index.index(), NO_PARAMS, null)
+                                .flatMap(exists -> exists.getStatusLine().getStatusCode() == 404
+                                        ? Mono.error(new IllegalStateException("Index " + index.index() + " does not exist"))
+                                        : Mono.just(index.index()));
+                    }
+                    List<String> indexes = new ArrayList<>();
+                    read(response).fieldNames().forEachRemaining(indexes::add);
+                    return indexes.size() == 1
+                            ? Mono.just(indexes.get(0))
+                            : Mono.error(new IllegalStateException("Alias " + index.index() + " points to " + indexes));
+                });
+    }
+
+    /**
+     * Copie par _reindex, en tâche de fond côté elasticsearch, suivie jusqu'à sa fin.
+     * Les documents déjà présents en version égale ou plus récente (rejoués) ne sont pas écrasés.
+     */
+    private Mono<Void> copy(Status status) {
+        Map<String, Object> body = ImmutableMap.of(
+                "conflicts", "proceed",
+                "source", ImmutableMap.of("index", status.getSource(), "size", properties.getBatchSize()),
+                "dest", ImmutableMap.of("index", status.getTarget(), "version_type", "external"));
+
+        return perform("POST", "/_reindex",
+                ImmutableMap.of("slices", properties.getSlices(), "wait_for_completion", "false"), json(body))
+                .map(response -> read(response).path("task").asText())
+                .doOnNext(status::setTask)
+                .flatMapMany(task -> Flux.interval(Duration.ofMillis(properties.getPollIntervalMillis()))
+                        .concatMap(tick -> perform("GET", "/_tasks/" + task, NO_PARAMS, null)))
+                .map(this::read)
+                .doOnNext(task -> status.progress(task.path("task").path("status")))
+                .filter(task -> task.path("completed").asBoolean())
+                .next()
+                .flatMap(task -> {
+                    status.setTask(null);
+                    JsonNode failures = task.path("response").path("failures");
+                    if (task.has("error") || failures.size() > 0) {
+                        JsonNode cause = task.has("error") ? task.path("error") : failures.path(0);
+                        return Mono.<Void>error(new IllegalStateException("Copy into " + status.getTarget() + " failed: " + cause));
+                    }
+                    return Mono.<Void>empty();
+                });
+    }
+
+    /**
+     * Réplicas de l'ancienne version, refresh par défaut; la nouvelle version est ensuite rendue lisible
+     */
+    private Mono<Void> restoreSettings(Status status) {
+        return perform("GET", "/" + status.getSource() + "/_settings/index.number_of_replicas",
+                ImmutableMap.of("flat_settings", "true"), null)
+                .map(response -> {
+                    Iterator<JsonNode> indexes = read(response).elements();
+                    int replicas = indexes.hasNext()
+                            ? indexes.next().path("settings").path("index.number_of_replicas").asInt(1)
+                            : 1;
+                    ObjectNode settings = objectMapper.createObjectNode();
+                    settings.with("index").putNull("refresh_interval").put("number_of_replicas", replicas);
+                    return settings;
+                })
+                .flatMap(settings -> perform("PUT", "/" + status.getTarget() + "/_settings", NO_PARAMS, json(settings)))
+                .then(perform("POST", "/" + status.getTarget() + "/_refresh", NO_PARAMS, null))
+                .then();
+    }
+
+    /**
+     * Rejoue les écritures enregistrées, jusqu'à ce qu'il n'en reste plus ou que les passes soient épuisées.
+     * Les écritures arrivées pendant une passe sont rejouées à la suivante.
+     */
+    private Mono<Void> replay(ElasticSearchIndexes index, Status status, int passes) {
+        return Mono.defer(() -> {
+            Set<String> ids = new LinkedHashSet<>();
+            for (String id = written.poll(); id != null; id = written.poll()) {
+                ids.add(id);
+            }
+            if (ids.isEmpty()) {
+                return Mono.empty();
+            }
+
+            Mono<Void> pass = Flux.fromIterable(ids)
+                    .buffer(properties.getBatchSize())
+                    .concatMap(batch -> replayBatch(index, status, batch))
+                    .then();
+            return passes > 1 ? pass.then(replay(index, status, passes - 1)) : pass;
+        });
+    }
+
+    /**
+     * Relit les documents dans l'ancienne version et les écrit dans la nouvelle, avec leur version
+     */
+    private Mono<Void> replayBatch(ElasticSearchIndexes index, Status status, List<String> ids) {
+        return perform("POST", "/" + status.getSource() + "/" + index.type() + "/_mget", NO_PARAMS,
+                json(ImmutableMap.of("ids", ids)))
+                .map(response -> {
+                    StringBuilder body = new StringBuilder();
+                    for (JsonNode doc : read(response).path("docs")) {
+                        if (doc.path("found").asBoolean()) {
+                            ObjectNode action = objectMapper.createObjectNode();
+                            action.with("index")
+                                    .put("_index", status.getTarget())
+                                    .put("_type", index.type())
+                                    .put("_id", doc.path("_id").asText())
+                                    .put("version", doc.path("_version").asLong())
+                                    .put("version_type", "external");
+                            body.append(json(action)).append('\n').append(json(doc.path("_source"))).append('\n');
+                        }
+                    }
+                    return body.toString();
+                })
+                .filter(body -> !body.isEmpty())
+                .flatMap(body -> perform("POST", "/_bulk", NO_PARAMS, body))
+                .flatMap(response -> {
+                    int copied = 0;
+                    List<JsonNode> failures = new ArrayList<>();
+                    for (JsonNode item : read(response).path("items")) {
+                        JsonNode result = item.path("index");
+                        int code = result.path("status").asInt();
+                        //409: une version égale ou plus récente est déjà copiée
+                        if (code < 300) {
+                            copied++;
+                        } else if (code != 409) {
+                            failures.add(result.path("error"));
+                        }
+                    }
+                    status.replayed(copied);
+                    replayed.increment(copied);
+                    return failures.isEmpty()
+                            ? Mono.<Void>empty()
+                            : Mono.<Void>error(new IllegalStateException(
+                                    failures.size() + " documents could not be replayed: " + failures.get(0)));
+                });
+    }
+
+    /**
+     * Bascule atomique de l'alias; un index concret portant le nom de l'alias est supprimé par la même action
+     */
+    private Mono<Void> swap(ElasticSearchIndexes index, Status status) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode actions = body.putArray("actions");
+        actions.addObject().with("add").put("index", status.getTarget()).put("alias", index.index());
+        if (status.isLegacy()) {
+            actions.addObject().with("remove_index").put("index", status.getSource());
+        } else {
+            actions.addObject().with("remove").put("index", status.getSource()).put("alias", index.index());
+        }
+
+        return perform("POST", "/_aliases", NO_PARAMS, json(body))
+                .doOnSuccess(response -> {
+                    status.setState(State.SWAPPED);
+                    log.info("Alias {} swapped from {} to {}", index.index(), status.getSource(), status.getTarget());
+                })
+                .then();
+    }
+
+    /**
+     * Échec avant la bascule: la copie est interrompue et la nouvelle version supprimée, l'alias n'a pas changé
+     */
+    private Mono<Void> cleanup(Status status) {
+        if (status.getState() == State.SWAPPED || status.getTarget() == null) {
+            return Mono.empty();
+        }
+        Mono<Void> cancel = status.getTask() == null
+                ? Mono.<Void>empty()
+                : perform("POST", "/_tasks/" + status.getTask() + "/_cancel", NO_PARAMS, null).then();
+
+        return cancel
+                .then(perform("DELETE", "/" + status.getTarget(), NO_PARAMS, null))
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Unable to delete index {} after a failed reindex", status.getTarget(), e);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Response> perform(String method, String endpoint, Map<String, String> params, String body) {
+        return RestCalls.perform(client.getLowLevelClient(), method, endpoint, params, body);
+    }
+
+    private JsonNode read(Response response) {
+        try {
+            return objectMapper.readTree(response.getEntity().getContent());
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private String json(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private static ToDoubleFunction<IndexReindexer> status(ToDoubleFunction<Status> value) {
+        return reindexer -> {
+            Status status = reindexer.current.get();
+            return status == null ? 0 : value.applyAsDouble(status);
+        };
+    }
+
+    public enum State {
+        COPYING, REPLAYING, SWAPPED, COMPLETED, FAILED
+    }
+
+    /**
+     * État d'un reindex, mis à jour au fil de la copie et du rejeu
+     */
+    @Data
+    public static class Status {
+
+        private final String alias;
+        private final long startedAt = System.currentTimeMillis();
+        private volatile String source;
+        private volatile String target;
+        private volatile String task;
+        private volatile State state = State.COPYING;
+        private volatile long total;
+        private volatile long copied;
+        private volatile long replayed;
+        private volatile long finishedAt;
+        private volatile String error;
+
+        /**
+         * @return vrai si l'alias porte le nom d'un index concret
+         */
+        public boolean isLegacy() {
+            return alias.equals(source);
+        }
+
+        public boolean isRunning() {
+            return state != State.COMPLETED && state != State.FAILED;
+        }
+
+        public double getProgress() {
+            return total == 0 ? 0 : (double) copied / total;
+        }
+
+        /**
+         * @return documents copiés par seconde depuis le début du reindex
+         */
+        public double getThroughput() {
+            long elapsed = (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+            return elapsed <= 0 ? 0 : copied * 1000.0 / elapsed;
+        }
+
+        /**
+         * Statut de la tâche _reindex, cumulé sur ses tranches
+         */
+        private void progress(JsonNode taskStatus) {
+            total = taskStatus.path("total").asLong();
+            copied = taskStatus.path("created").asLong() + taskStatus.path("updated").asLong()
+                    + taskStatus.path("version_conflicts").asLong();
+        }
+
+        private synchronized void replayed(int documents) {
+            replayed += documents;
+        }
+
+        private void completed() {
+            finishedAt = System.currentTimeMillis();
+            state = State.COMPLETED;
+        }
+
+        private void failed(Throwable e) {
+            error = e.getMessage();
+            finishedAt = System.currentTimeMillis();
+            state = State.FAILED;
+        }
+    }
+}
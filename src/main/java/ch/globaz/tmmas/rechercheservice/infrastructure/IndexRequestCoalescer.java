@@ -0,0 +1,144 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Regroupe les indexations unitaires concurrentes en requêtes _bulk.<br/>
+ * Les demandes sont accumulées pendant un court délai ou jusqu'à un nombre maximal de documents,
+ * puis envoyées ensemble. Chaque appelant reçoit la réponse de son propre document.<br/>
+ * Les lots formés pendant que tous les envois sont en vol attendent une place. Si le regroupement
+ * s'arrête (arrêt du service), les demandes en attente et les suivantes échouent.
+ */
+@Slf4j
+class IndexRequestCoalescer {
+
+    private final UnicastProcessor<PendingIndex> processor = UnicastProcessor.create();
+    private final FluxSink<PendingIndex> pending = processor.sink();
+    private final Disposable subscription;
+    /** demandes dont la réponse n'est pas encore transmise */
+    private final Set<PendingIndex> waiting = ConcurrentHashMap.newKeySet();
+    private volatile Throwable terminated;
+
+    /**
+     * @param bulk l'envoi d'un lot de requêtes d'indexation
+     * @param maxDocuments nombre maximal de documents par lot
+     * @param maxDelay délai maximal d'attente d'un document avant l'envoi de son lot
+     * @param concurrency nombre de lots en vol simultanément
+     */
+    IndexRequestCoalescer(Function<List<IndexRequest>, Mono<BulkResponse>> bulk,
+                          int maxDocuments, Duration maxDelay, int concurrency) {
+        this.subscription = processor
+                .bufferTimeout(maxDocuments, maxDelay)
+                //sans demande en aval, bufferTimeout échouerait à l'expiration du délai
+                .onBackpressureBuffer()
+                .flatMap(batch -> flush(bulk, batch), concurrency)
+                .subscribe(null, e -> {
+                            log.error("Index coalescing stopped", e);
+                            terminate(e);
+                        }, () -> terminate(disposed()));
+    }
+
+    /**
+     * Ajoute une requête au prochain lot.
+     * @param request la requête d'indexation
+     * @return une Mono contenant la réponse du document une fois son lot traité
+     */
+    Mono<IndexResponse> index(IndexRequest request) {
+        return Mono.create(sink -> {
+            PendingIndex index = new PendingIndex(request, sink);
+            waiting.add(index);
+            pending.next(index);
+            //regroupement arrêté entre-temps: la demande ne sera jamais traitée
+            Throwable error = terminated;
+            if (error != null) {
+                failWaiting(error);
+            }
+        });
+    }
+
+    void dispose() {
+        pending.complete();
+        subscription.dispose();
+        terminate(disposed());
+    }
+
+    private Mono<Void> flush(Function<List<IndexRequest>, Mono<BulkResponse>> bulk, List<PendingIndex> batch) {
+        log.debug("Coalesced bulk of {} documents", batch.size());
+
+        List<IndexRequest> requests = batch.stream()
+                .map(PendingIndex::getRequest)
+                .collect(Collectors.toList());
+
+        return bulk.apply(requests)
+                .doOnNext(response -> complete(batch, response))
+                .doOnError(e -> batch.forEach(p -> p.error(e)))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /**
+     * Les items d'une réponse _bulk sont dans l'ordre des requêtes du lot.
+     */
+    private void complete(List<PendingIndex> batch, BulkResponse response) {
+        BulkItemResponse[] items = response.getItems();
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingIndex index = batch.get(i);
+            BulkItemResponse item = items[i];
+
+            if (item.isFailed()) {
+                index.error(item.getFailure().getCause());
+            } else {
+                index.success(item.getResponse());
+            }
+        }
+    }
+
+    private static IllegalStateException disposed() {
+        return new IllegalStateException("Index coalescer disposed");
+    }
+
+    private void terminate(Throwable error) {
+        terminated = error;
+        failWaiting(error);
+    }
+
+    private void failWaiting(Throwable error) {
+        waiting.forEach(index -> index.error(error));
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    private class PendingIndex {
+        private final IndexRequest request;
+        private final MonoSink<IndexResponse> sink;
+
+        private void success(IndexResponse response) {
+            waiting.remove(this);
+            sink.success(response);
+        }
+
+        private void error(Throwable error) {
+            waiting.remove(this);
+            sink.error(error);
+        }
+    }
+}
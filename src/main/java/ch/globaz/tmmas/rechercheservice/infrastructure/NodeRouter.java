@@ -0,0 +1,273 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Choix du noeud elasticsearch des lectures idempotentes, selon la latence observée de chaque noeud.<br/>
+ * Chaque noeud a son propre client: la lecture est envoyée au noeud sain dont la latence moyenne (EWMA),
+ * pondérée par ses appels en vol, est la plus faible. Une moyenne non rafraîchie décroît avec le temps,
+ * un noeud écarté est donc à nouveau essayé. Un noeud en échec (connexion, 429, 503) est écarté
+ * pendant {@code failureBackoffMillis}, et la lecture est renvoyée une fois vers un autre noeud.<br/>
+ * Si le hedging est activé, une lecture sans réponse après le p95 des latences récentes est dupliquée
+ * vers un second noeud; la première réponse est retenue, l'autre est ignorée, et l'échec du duplicata
+ * n'interrompt pas la lecture. Le nombre de duplicatas
+ * est borné à {@code hedgeBudgetPercent} des lectures.<br/>
+ * Métriques: es.node.latency et es.node.requests par noeud, es.node.fallback, es.hedge.sent, es.hedge.won,
+ * es.hedge.rate (duplicatas / lectures) et es.hedge.win.rate (duplicatas gagnants / duplicatas).
+ */
+@Slf4j
+public class NodeRouter implements Closeable {
+
+    /** nombre de latences récentes servant au calcul du délai de hedging */
+    private static final int WINDOW = 1024;
+    /** nombre de latences à observer avant de dupliquer une lecture */
+    private static final int MIN_SAMPLES = 100;
+    /** nombre de nouvelles latences entre deux calculs du délai de hedging */
+    private static final int REFRESH_EVERY = 64;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final ElasticSearchProperties.Routing properties;
+
+    private final long[] window = new long[WINDOW];
+    private int samples;
+    private volatile long hedgeDelayNanos = -1;
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong wins = new AtomicLong();
+    private final Counter hedgeSent = Metrics.counter("es.hedge.sent");
+    private final Counter hedgeWon = Metrics.counter("es.hedge.won");
+    private final Counter fallbacks = Metrics.counter("es.node.fallback");
+
+    /**
+     * @param clients un client par noeud, fermés avec le routeur
+     */
+    public NodeRouter(Map<HttpHost, RestHighLevelClient> clients, ElasticSearchProperties.Routing properties) {
+        this.properties = properties;
+        clients.forEach((host, client) -> nodes.add(new Node(host, client)));
+
+        Metrics.gauge("es.hedge.rate", this, router -> ratio(router.hedges.get(), router.reads.get()));
+        Metrics.gauge("es.hedge.win.rate", this, router -> ratio(router.wins.get(), router.hedges.get()));
+    }
+
+    /**
+     * @param call l'appel à effectuer avec le client du noeud choisi
+     * @return une Mono émettant la première réponse obtenue
+     */
+    <T> Mono<T> route(Function<RestHighLevelClient, Mono<T>> call) {
+        return Mono.defer(() -> {
+            reads.incrementAndGet();
+            Node primary = select(null);
+            Mono<T> first = primary.call(call)
+                    .onErrorResume(NodeRouter::isNodeFailure, e -> fallback(primary, call, e));
+
+            long delay = hedgeDelayNanos;
+            if (!properties.isHedging() || delay < 0 || nodes.size() < 2) {
+                return first;
+            }
+
+            Mono<T> hedge = Mono.delay(Duration.ofNanos(delay)).flatMap(tick -> {
+                Node secondary = select(primary);
+                if (secondary == null || !acquireHedge()) {
+                    return Mono.never();
+                }
+                log.debug("Read hedged from {} to {}", primary.host, secondary.host);
+                //seule une réponse du duplicata l'emporte: son échec laisse la lecture au noeud choisi
+                return secondary.call(call)
+                        .onErrorResume(NodeRouter::isNodeFailure, e -> Mono.never())
+                        .doOnNext(response -> {
+                            wins.incrementAndGet();
+                            hedgeWon.increment();
+                        });
+            });
+            return Mono.first(first, hedge);
+        });
+    }
+
+    /**
+     * Lecture renvoyée vers un autre noeud après l'échec du noeud choisi, sans quoi un noeud tombé
+     * ferait échouer la lecture jusqu'à son écartement
+     */
+    private <T> Mono<T> fallback(Node failed, Function<RestHighLevelClient, Mono<T>> call, Throwable error) {
+        Node other = select(failed);
+        if (other == null) {
+            return Mono.error(error);
+        }
+        log.debug("Read failed on {}, retried on {}", failed.host, other.host);
+        fallbacks.increment();
+        return other.call(call);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Node node : nodes) {
+            node.client.close();
+        }
+    }
+
+    /**
+     * Noeud sain de plus faible coût, hors noeud exclu; les noeuds écartés ne sont choisis que si aucun n'est sain
+     * @param excluded le noeud déjà sollicité, null si aucun
+     * @return le noeud choisi, null si aucun autre noeud n'existe
+     */
+    private Node select(Node excluded) {
+        long now = System.nanoTime();
+        int offset = ThreadLocalRandom.current().nextInt(nodes.size());
+        Node best = null;
+        double bestCost = Double.MAX_VALUE;
+        boolean bestHealthy = false;
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((offset + i) % nodes.size());
+            if (node == excluded) {
+                continue;
+            }
+            boolean healthy = node.isHealthy(now);
+            double cost = node.cost(now);
+            if (best == null || (healthy && !bestHealthy) || (healthy == bestHealthy && cost < bestCost)) {
+                best = node;
+                bestCost = cost;
+                bestHealthy = healthy;
+            }
+        }
+        return best;
+    }
+
+    private boolean acquireHedge() {
+        long budget = reads.get() * properties.getHedgeBudgetPercent() / 100;
+        if (hedges.get() >= budget) {
+            return false;
+        }
+        hedges.incrementAndGet();
+        hedgeSent.increment();
+        return true;
+    }
+
+    /**
+     * Fenêtre des latences récentes, tous noeuds confondus; le délai de hedging est recalculé périodiquement
+     */
+    private synchronized void sample(long latencyNanos) {
+        window[samples % WINDOW] = latencyNanos;
+        samples++;
+        if (samples >= MIN_SAMPLES && samples % REFRESH_EVERY == 0) {
+            long[] sorted = Arrays.copyOf(window, Math.min(samples, WINDOW));
+            Arrays.sort(sorted);
+            long quantile = sorted[(int) Math.min(sorted.length - 1, Math.ceil(properties.getHedgeQuantile() * sorted.length))];
+            hedgeDelayNanos = Math.max(quantile, TimeUnit.MILLISECONDS.toNanos(properties.getMinHedgeDelayMillis()));
+        }
+    }
+
+    private static double ratio(long value, long total) {
+        return total == 0 ? 0 : (double) value / total;
+    }
+
+    /**
+     * Erreurs imputables au noeud: connexion impossible ou interrompue, surcharge.
+     * Une requête invalide (4xx) n'écarte pas le noeud.
+     */
+    private static boolean isNodeFailure(Throwable error) {
+        return ConcurrencyLimiter.isOverload(error)
+                || (error instanceof IOException && !(error instanceof ResponseException));
+    }
+
+    private final class Node {
+
+        private final HttpHost host;
+        private final RestHighLevelClient client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Counter requests;
+
+        private boolean measured;
+        private double ewmaNanos;
+        private long updatedNanos;
+        private volatile long unhealthyUntilNanos;
+
+        private Node(HttpHost host, RestHighLevelClient client) {
+            this.host = host;
+            this.client = client;
+            this.unhealthyUntilNanos = System.nanoTime();
+
+            Tags tags = Tags.of("node", host.toHostString());
+            this.requests = Metrics.counter("es.node.requests", tags);
+            Metrics.gauge("es.node.latency", tags, this, node -> node.ewmaNanos / 1e6);
+        }
+
+        private <T> Mono<T> call(Function<RestHighLevelClient, Mono<T>> call) {
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                AtomicBoolean done = new AtomicBoolean();
+                inFlight.incrementAndGet();
+                requests.increment();
+
+                return call.apply(client)
+                        .doOnSuccessOrError((response, e) -> {
+                            if (done.compareAndSet(false, true)) {
+                                inFlight.decrementAndGet();
+                                completed(System.nanoTime() - start, e);
+                            }
+                        })
+                        .doOnCancel(() -> {
+                            if (done.compareAndSet(false, true)) {
+                                inFlight.decrementAndGet();
+                            }
+                        });
+            });
+        }
+
+        private void completed(long latencyNanos, Throwable error) {
+            if (error != null) {
+                if (isNodeFailure(error)) {
+                    log.warn("Elasticsearch node {} failed, avoided for {} ms", host, properties.getFailureBackoffMillis());
+                    unhealthyUntilNanos = System.nanoTime()
+                            + TimeUnit.MILLISECONDS.toNanos(properties.getFailureBackoffMillis());
+                }
+                return;
+            }
+            synchronized (this) {
+                ewmaNanos = !measured
+                        ? latencyNanos
+                        : ewmaNanos + properties.getSmoothing() * (latencyNanos - ewmaNanos);
+                updatedNanos = System.nanoTime();
+                measured = true;
+            }
+            sample(latencyNanos);
+        }
+
+        /**
+         * Latence moyenne décrue depuis sa dernière mise à jour, pondérée par les appels en vol
+         */
+        private synchronized double cost(long now) {
+            if (!measured) {
+                return 0;
+            }
+            double idle = (double) (now - updatedNanos) / TimeUnit.MILLISECONDS.toNanos(properties.getDecayMillis());
+            return ewmaNanos * Math.exp(-idle) * (inFlight.get() + 1);
+        }
+
+        private boolean isHealthy(long now) {
+            return now - unhealthyUntilNanos >= 0;
+        }
+    }
+}
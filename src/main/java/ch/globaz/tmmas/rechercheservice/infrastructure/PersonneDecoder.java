@@ -0,0 +1,98 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import ch.globaz.tmmas.rechercheservice.domaine.PersonneResume;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Décodage des documents {@code Personne} directement depuis les octets source renvoyés par elasticsearch.<br/>
+ * Le lecteur jackson est construit une seule fois, et la source n'est convertie ni en {@code String}
+ * ni en {@code Map} intermédiaire.
+ */
+@Slf4j
+@Component
+public class PersonneDecoder {
+
+    private final ObjectReader reader;
+    private final ObjectReader resumeReader;
+    private final ObjectReader treeReader;
+
+    public PersonneDecoder(ObjectMapper objectMapper) {
+        this.reader = objectMapper.readerFor(Personne.class);
+        this.resumeReader = objectMapper.readerFor(PersonneResume.class);
+        this.treeReader = objectMapper.readerFor(JsonNode.class);
+    }
+
+    /**
+     * Décode la source d'un document
+     * @param source les octets JSON de la source
+     * @return une instance de {@code Personne}
+     * @throws UncheckedIOException si la source n'est pas un document {@code Personne} valide
+     */
+    public Personne decode(BytesReference source) {
+        return read(reader, source);
+    }
+
+    /**
+     * Décode le résumé d'un document, depuis une source filtrée sur {@link PersonneResume#FIELDS}
+     */
+    public PersonneResume decodeResume(BytesReference source) {
+        return read(resumeReader, source);
+    }
+
+    /**
+     * Décode une source filtrée sur des champs quelconques, sans type cible
+     */
+    public JsonNode decodeTree(BytesReference source) {
+        return read(treeReader, source);
+    }
+
+    public Personne decode(GetResponse response) {
+        return decode(response.getSourceAsBytesRef());
+    }
+
+    public Personne decode(SearchHit hit) {
+        return decode(hit.getSourceRef());
+    }
+
+    /**
+     * Décode tous les hits d'une réponse de recherche. Un hit illisible est journalisé et ignoré.
+     * @param hits les hits de la réponse
+     * @return la liste des documents, dans l'ordre des hits
+     */
+    public List<Personne> decode(SearchHits hits) {
+        List<Personne> personnes = new ArrayList<>(hits.getHits().length);
+
+        for (SearchHit hit : hits.getHits()) {
+            try {
+                personnes.add(decode(hit));
+            } catch (UncheckedIOException e) {
+                log.error("IO Exception when deserialising hit : {}", hit.getId(), e.getCause());
+            }
+        }
+        return personnes;
+    }
+
+    private static <T> T read(ObjectReader reader, BytesReference source) {
+        BytesRef bytes = source.toBytesRef();
+        try {
+            return reader.readValue(bytes.bytes, bytes.offset, bytes.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
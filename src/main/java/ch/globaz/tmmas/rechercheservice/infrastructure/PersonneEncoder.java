@@ -0,0 +1,91 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodage des documents {@code Personne} tels qu'indexés dans elasticsearch.<br/>
+ * Le document indexé contient, en plus de la personne, les entrées du champ de complétion {@code suggest}
+ * (nom et prénom dans les deux ordres, localité et employeur).
+ */
+@Component
+public class PersonneEncoder {
+
+    /** champ de complétion alimenté à l'indexation */
+    public static final String SUGGEST_FIELD = "suggest";
+
+    private final ObjectWriter writer;
+
+    public PersonneEncoder(ObjectMapper objectMapper) {
+        this.writer = objectMapper.writerFor(IndexedPersonne.class);
+    }
+
+    /**
+     * @param personne la personne à indexer
+     * @return la source JSON du document
+     */
+    public byte[] encode(Personne personne) throws JsonProcessingException {
+        return writer.writeValueAsBytes(indexed(personne));
+    }
+
+    /**
+     * Écrit la source JSON du document dans un générateur, sans copie intermédiaire
+     * @param personne la personne à indexer
+     * @param generator le générateur cible
+     */
+    public void encode(Personne personne, JsonGenerator generator) throws IOException {
+        writer.writeValue(generator, indexed(personne));
+    }
+
+    /**
+     * @return la fabrique des générateurs JSON de l'encodeur
+     */
+    JsonFactory jsonFactory() {
+        return writer.getFactory();
+    }
+
+    private static IndexedPersonne indexed(Personne personne) {
+        return new IndexedPersonne(personne, new Suggest(inputs(personne)));
+    }
+
+    private static List<String> inputs(Personne personne) {
+        List<String> inputs = new ArrayList<>(4);
+        if (personne.getNom() != null && personne.getPrenom() != null) {
+            inputs.add(personne.getPrenom() + " " + personne.getNom());
+            inputs.add(personne.getNom() + " " + personne.getPrenom());
+        }
+        if (personne.getAdresse() != null && personne.getAdresse().getLocalite() != null) {
+            inputs.add(personne.getAdresse().getLocalite());
+        }
+        if (personne.getEmployeur() != null && personne.getEmployeur().getNom() != null) {
+            inputs.add(personne.getEmployeur().getNom());
+        }
+        return inputs;
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    static class IndexedPersonne {
+        @JsonUnwrapped
+        private final Personne personne;
+        private final Suggest suggest;
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    static class Suggest {
+        private final List<String> input;
+    }
+}
@@ -0,0 +1,295 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import io.micrometer.core.instrument.Metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index local exact des NSS ({@code 756.xxxx.xxxx.xx}) vers les usernames des personnes.<br/>
+ * Les clés sont encodées en long (chiffres du numéro) dans une table à adressage ouvert de tableaux primitifs;
+ * les usernames sont stockés en UTF-8 à la suite dans un tableau d'octets. Une entrée occupe une trentaine
+ * d'octets, sans objet par entrée.<br/>
+ * Un NSS désigne une seule personne, mais une clé peut avoir plusieurs entrées tant qu'une entrée périmée
+ * (NSS réattribué à une autre personne) n'a pas été vérifiée.<br/>
+ * L'index n'indique que des candidats: les documents lus doivent être vérifiés ({@link #matches}),
+ * et une entrée périmée (numéro modifié, document supprimé) retirée.
+ */
+class PersonneExactIndex {
+
+    /** champs source lus au chargement de l'index */
+    static final String[] FIELDS = {"username", "nss"};
+
+    private static final Pattern NSS = Pattern.compile("(756)\\.?(\\d{4})\\.?(\\d{4})\\.?(\\d{2})");
+
+    /** emplacement jamais occupé, aucune clé ne vaut 0 (préfixe 756) */
+    private static final long FREE = 0;
+    /** emplacement d'une entrée retirée, réutilisable */
+    private static final long REMOVED = -1;
+    private static final float LOAD_FACTOR = 0.75f;
+    /** longueur d'un username, codée sur deux octets */
+    private static final int MAX_USERNAME_BYTES = 0xFFFF;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] keys;
+    private int[] offsets;
+    private byte[] usernames;
+    private int usernamesSize;
+    private int size;
+    private int removed;
+    private volatile boolean ready;
+
+    /**
+     * @param expectedEntries nombre d'entrées attendu, la table grandit au-delà
+     */
+    PersonneExactIndex(int expectedEntries) {
+        int capacity = capacity(expectedEntries);
+        this.keys = new long[capacity];
+        this.offsets = new int[capacity];
+        this.usernames = new byte[Math.max(1024, expectedEntries * 16)];
+
+        Metrics.gauge("es.exact.entries", this, PersonneExactIndex::size);
+        Metrics.gauge("es.exact.bytes", this, PersonneExactIndex::bytes);
+    }
+
+    /**
+     * @param terme le terme recherché
+     * @return la clé du NSS, -1 si le terme n'en est pas un
+     */
+    static long key(String terme) {
+        if (terme == null) {
+            return -1;
+        }
+        Matcher nss = NSS.matcher(terme.trim());
+        return nss.matches() ? digits(nss) : -1;
+    }
+
+    /**
+     * @return vrai si le document porte toujours le NSS de la clé
+     */
+    static boolean matches(Personne doc, long key) {
+        return key == key(doc.getNss());
+    }
+
+    /**
+     * Ajoute la clé NSS du document; l'ancienne clé d'un document modifié reste jusqu'à sa vérification
+     */
+    void put(Personne doc) {
+        String username = doc.getUsername();
+        long nss = key(doc.getNss());
+        if (username == null || nss < 0) {
+            return;
+        }
+
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_USERNAME_BYTES) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            add(nss, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return les usernames de la clé, triés, vide si la clé est inconnue
+     */
+    List<String> find(long key) {
+        List<String> found = Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); keys[slot] != FREE; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    if (found.isEmpty()) {
+                        found = new ArrayList<>(1);
+                    }
+                    found.add(username(offsets[slot]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    /**
+     * Retire une entrée périmée
+     */
+    void remove(long key, String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); keys[slot] != FREE; slot = (slot + 1) & mask) {
+                if (keys[slot] == key && sameUsername(offsets[slot], name)) {
+                    keys[slot] = REMOVED;
+                    size--;
+                    removed++;
+                    return;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * L'index ne répond qu'une fois chargé, une clé absente pouvant sinon ne pas encore être lue
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    void ready() {
+        ready = true;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long bytes() {
+        lock.readLock().lock();
+        try {
+            return keys.length * (long) (Long.BYTES + Integer.BYTES) + usernames.length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(long key, byte[] name) {
+        if ((size + removed + 1) > keys.length * LOAD_FACTOR) {
+            rehash(capacity(size + 1));
+        }
+
+        int mask = keys.length - 1;
+        int reusable = -1;
+        int slot = slot(key, mask);
+        for (; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == REMOVED) {
+                if (reusable < 0) {
+                    reusable = slot;
+                }
+            } else if (keys[slot] == key && sameUsername(offsets[slot], name)) {
+                return;
+            }
+        }
+        if (reusable >= 0) {
+            slot = reusable;
+            removed--;
+        }
+        keys[slot] = key;
+        offsets[slot] = append(name);
+        size++;
+    }
+
+    /**
+     * Reconstruit la table sans les entrées retirées; les usernames sont recopiés sans ceux des entrées retirées
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldOffsets = offsets;
+        byte[] oldUsernames = usernames;
+
+        keys = new long[capacity];
+        offsets = new int[capacity];
+        long live = (long) usernamesSize * size / Math.max(1, size + removed);
+        usernames = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, live + (live >> 1)))];
+        usernamesSize = 0;
+        removed = 0;
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE && oldKeys[i] != REMOVED) {
+                int slot = slot(oldKeys[i], mask);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                int length = length(oldUsernames, oldOffsets[i]);
+                keys[slot] = oldKeys[i];
+                offsets[slot] = append(oldUsernames, oldOffsets[i] + 2, length);
+            }
+        }
+    }
+
+    private int append(byte[] name) {
+        return append(name, 0, name.length);
+    }
+
+    /**
+     * Username précédé de sa longueur sur deux octets
+     */
+    private int append(byte[] source, int from, int length) {
+        if (usernamesSize + length + 2 > usernames.length) {
+            usernames = Arrays.copyOf(usernames, Math.max(usernames.length + (usernames.length >> 1), usernamesSize + length + 2));
+        }
+        int offset = usernamesSize;
+        usernames[offset] = (byte) (length >>> 8);
+        usernames[offset + 1] = (byte) length;
+        System.arraycopy(source, from, usernames, offset + 2, length);
+        usernamesSize += length + 2;
+        return offset;
+    }
+
+    private String username(int offset) {
+        return new String(usernames, offset + 2, length(usernames, offset), StandardCharsets.UTF_8);
+    }
+
+    private boolean sameUsername(int offset, byte[] name) {
+        int length = length(usernames, offset);
+        if (length != name.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (usernames[offset + 2 + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int length(byte[] usernames, int offset) {
+        return ((usernames[offset] & 0xFF) << 8) | (usernames[offset + 1] & 0xFF);
+    }
+
+    private static long digits(Matcher matcher) {
+        long value = 0;
+        for (int group = 1; group <= matcher.groupCount(); group++) {
+            String digits = matcher.group(group);
+            for (int i = 0; i < digits.length(); i++) {
+                value = value * 10 + (digits.charAt(i) - '0');
+            }
+        }
+        return value;
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * @return la plus petite puissance de 2 contenant les entrées sous le facteur de charge, au double de leur nombre
+     */
+    private static int capacity(int entries) {
+        int needed = (int) Math.min(1 << 30, Math.max(16L, (long) (entries * 2 / LOAD_FACTOR)));
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+}
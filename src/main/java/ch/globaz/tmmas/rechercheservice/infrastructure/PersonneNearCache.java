@@ -0,0 +1,106 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import ch.globaz.tmmas.rechercheservice.domaine.PagePersonnes;
+import ch.globaz.tmmas.rechercheservice.domaine.Personne;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache local des résultats de recherche et de lecture par username, borné en taille et en durée de vie.<br/>
+ * Les écritures passant par le service invalident les lectures des usernames concernés, et toutes les recherches:
+ * un document écrit peut entrer dans n'importe quelle page, pas seulement celles qui le contenaient. Une lecture démarrée
+ * avant une invalidation n'alimente pas le cache, afin de ne pas y réintroduire une valeur périmée.
+ */
+@Slf4j
+class PersonneNearCache {
+
+    private final boolean enabled;
+    private final Cache<SearchKey, PagePersonnes> searches;
+    private final Cache<String, Personne> personnes;
+    private final AtomicLong generation = new AtomicLong();
+
+    PersonneNearCache(ElasticSearchProperties.Cache properties) {
+        this.enabled = properties.isEnabled();
+        this.searches = build(properties);
+        this.personnes = build(properties);
+
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, searches, "es.cache.search");
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, personnes, "es.cache.get");
+    }
+
+    Mono<PagePersonnes> recherche(String methode, String terme, Integer size, String cursor,
+                                  Supplier<Mono<PagePersonnes>> loader) {
+        return cached(searches, new SearchKey(methode, terme, size, cursor), loader);
+    }
+
+    Mono<Personne> findByUserName(String userName, Supplier<Mono<Personne>> loader) {
+        return cached(personnes, userName, loader);
+    }
+
+    void invalidate(String userName) {
+        if (enabled) {
+            generation.incrementAndGet();
+            personnes.invalidate(userName);
+            searches.invalidateAll();
+        }
+    }
+
+    void invalidateAll(Collection<String> userNames) {
+        if (enabled && !userNames.isEmpty()) {
+            generation.incrementAndGet();
+            personnes.invalidateAll(userNames);
+            searches.invalidateAll();
+        }
+    }
+
+    private <K, V> Mono<V> cached(Cache<K, V> cache, K key, Supplier<Mono<V>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        return Mono.defer(() -> {
+            V value = cache.getIfPresent(key);
+            if (value != null) {
+                log.trace("Near cache hit: {}", key);
+                return Mono.just(value);
+            }
+
+            long readGeneration = generation.get();
+            return loader.get().doOnNext(loaded -> {
+                if (generation.get() == readGeneration) {
+                    cache.put(key, loaded);
+                }
+            });
+        });
+    }
+
+    private static <K, V> Cache<K, V> build(ElasticSearchProperties.Cache properties) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(properties.getMaxSize())
+                .expireAfterWrite(properties.getTtlSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    @ToString
+    private static class SearchKey {
+        private final String methode;
+        private final String terme;
+        private final Integer size;
+        private final String cursor;
+    }
+}
@@ -0,0 +1,83 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Projection des documents lus: champs source demandés à elasticsearch ({@code _source} includes/excludes)
+ * et lecteur dédié de la source filtrée. Seuls les octets des champs projetés transitent et sont décodés.
+ * @param <T> le type des documents décodés
+ */
+@Slf4j
+public final class Projection<T> {
+
+    /** nom de la projection (personne, resume, fields), tag des métriques */
+    @Getter
+    private final String name;
+    private final String[] includes;
+    private final String[] excludes;
+    private final Function<BytesReference, T> reader;
+
+    /**
+     * @param includes les champs source lus, tous si vide
+     * @param excludes les champs source jamais lus
+     */
+    Projection(String name, String[] includes, String[] excludes, Function<BytesReference, T> reader) {
+        this.name = name;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.reader = reader;
+    }
+
+    FetchSourceContext fetchSource() {
+        return new FetchSourceContext(true, includes, excludes);
+    }
+
+    /**
+     * @return la clé de la projection, distinguant les lectures identiques en vol et en cache
+     */
+    String key() {
+        return name + String.join(",", includes);
+    }
+
+    T decode(BytesReference source) {
+        return reader.apply(source);
+    }
+
+    T decode(SearchHit hit) {
+        return decode(hit.getSourceRef());
+    }
+
+    /**
+     * Décode tous les hits d'une réponse de recherche. Un hit illisible est journalisé et ignoré.
+     */
+    List<T> decode(SearchHits hits) {
+        return decode(Arrays.asList(hits.getHits()));
+    }
+
+    /**
+     * Décode des hits, par exemple fusionnés depuis plusieurs réponses. Un hit illisible est journalisé et ignoré.
+     */
+    List<T> decode(List<SearchHit> hits) {
+        List<T> documents = new ArrayList<>(hits.size());
+
+        for (SearchHit hit : hits) {
+            try {
+                documents.add(decode(hit));
+            } catch (UncheckedIOException e) {
+                log.error("IO Exception when deserialising hit : {}", hit.getId(), e.getCause());
+            }
+        }
+        return documents;
+    }
+}
@@ -1,63 +1,133 @@
 package ch.globaz.tmmas.rechercheservice.infrastructure;
 
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.Operator;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.springframework.stereotype.Component;
 
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+/**
+ * Fabrique des requêtes de recherche par méthode.<br/>
+ * Les méthodes, champs, boosts et paramètres de fuzziness proviennent de la configuration
+ * ({@code elasticsearch.queries}); chaque méthode est compilée une fois en {@link QueryTemplate}.
+ */
+@Component
 public class QueryBuilderFactory {
 
-    public static QueryBuilder wildCarsdQueryBuilder(String terme){
+    public static final String FUZZY = "fuzzy";
+    public static final String WILDCARDS = "wildcards";
 
-        QueryBuilder wildCarsdQueryBuilder = QueryBuilders.queryStringQuery(queryString(terme))
-                .fields(fieldsToParse())
-                .fuzziness(Fuzziness.TWO)
-                .fuzzyPrefixLength(0)
-                .fuzzyMaxExpansions(50)
-                .fuzzyTranspositions(Boolean.TRUE);
+    private final Map<String, QueryTemplate> templates;
+    private final Set<String> exact;
 
-        return wildCarsdQueryBuilder;
+    public QueryBuilderFactory(ElasticSearchProperties properties) {
+        ImmutableMap.Builder<String, QueryTemplate> builder = ImmutableMap.builder();
+        ImmutableSet.Builder<String> exactBuilder = ImmutableSet.builder();
+        properties.getQueries().forEach((methode, query) -> {
+            builder.put(methode, QueryTemplate.compile(prototype(query)));
+            if (query.getFuzziness() == null || query.getFuzziness().isEmpty()) {
+                exactBuilder.add(methode);
+            }
+        });
+        this.templates = builder.build();
+        this.exact = exactBuilder.build();
     }
 
-    public static QueryBuilder fuzzyQueryBuilder(String terme){
+    public boolean supports(String methode) {
+        return templates.containsKey(methode);
+    }
 
-        Object []  objectFields = fieldsToParseAsList().toArray();
-        String [] fields = Arrays.copyOf(objectFields,objectFields.length,String[].class) ;
+    /**
+     * @return vrai si la méthode est configurée sans fuzziness: un terme n'y retrouve pas ses voisins
+     */
+    public boolean isExact(String methode) {
+        return exact.contains(methode);
+    }
 
-        QueryBuilder fuzzyTranspositionsCarsdQueryBuilder = QueryBuilders
-                .multiMatchQuery(terme,fields)
-                .fields(fieldsToParse())
-                .fuzziness(Fuzziness.TWO)
-                .prefixLength(0)
-                .maxExpansions(50)
-                .fuzzyTranspositions(Boolean.TRUE);
+    public QueryBuilder queryBuilder(String methode, String terme) {
+        return template(methode).queryBuilder(terme);
+    }
 
-        return fuzzyTranspositionsCarsdQueryBuilder;
+    public QueryBuilder wildCarsdQueryBuilder(String terme){
+        return queryBuilder(WILDCARDS, terme);
     }
 
-    private static String queryString(String terme) {
-        return "*"+terme+"*";
+    public QueryBuilder fuzzyQueryBuilder(String terme){
+        return queryBuilder(FUZZY, terme);
     }
 
-    private static final Map<String,Float> fieldsToParse(){
-        Map<String,Float> fields = new HashMap<>();
-        fields.put("adresse.npa",1.0f);
-        fields.put("adresse.localite",1.0f);
-        fields.put("nom",1.0f);
-        fields.put("prenom",1.0f);
-        fields.put("employeur.ide",1.0f);
-        fields.put("nss",1.0f);
-        return fields;
+    private QueryTemplate template(String methode) {
+        QueryTemplate template = templates.get(methode);
+        if (template == null) {
+            throw new IllegalArgumentException("methode name specified error : " + methode);
+        }
+        return template;
     }
 
-    private static final List<String> fieldsToParseAsList(){
-        return fieldsToParse().keySet().stream()
-            .collect(Collectors.toList());
+    /**
+     * Construit la requête d'une méthode avec le marqueur à la place du terme
+     */
+    static QueryBuilder prototype(ElasticSearchProperties.Query query) {
+        Map<String, Float> fields = fields(query.getFields());
+        String terme = query.getPattern().replace("{terme}", QueryTemplate.PLACEHOLDER);
+
+        Operator operator = Operator.fromString(query.getOperator());
+        boolean fuzzy = query.getFuzziness() != null && !query.getFuzziness().isEmpty();
+
+        switch (query.getType()) {
+            case MULTI_MATCH:
+                MultiMatchQueryBuilder multiMatch = QueryBuilders
+                        .multiMatchQuery(terme)
+                        .fields(fields)
+                        .operator(operator);
+                if (fuzzy) {
+                    multiMatch
+                            .fuzziness(Fuzziness.build(query.getFuzziness()))
+                            .prefixLength(query.getPrefixLength())
+                            .maxExpansions(query.getMaxExpansions())
+                            .fuzzyTranspositions(query.isTranspositions());
+                }
+                return multiMatch;
+            case QUERY_STRING:
+                QueryStringQueryBuilder queryString = QueryBuilders
+                        .queryStringQuery(terme)
+                        .fields(fields)
+                        .defaultOperator(operator);
+                if (fuzzy) {
+                    queryString
+                            .fuzziness(Fuzziness.build(query.getFuzziness()))
+                            .fuzzyPrefixLength(query.getPrefixLength())
+                            .fuzzyMaxExpansions(query.getMaxExpansions())
+                            .fuzzyTranspositions(query.isTranspositions());
+                }
+                return queryString;
+            default:
+                throw new IllegalArgumentException("query type specified error : " + query.getType());
+        }
+    }
 
+    /**
+     * @param fields les champs, éventuellement boostés selon la syntaxe elasticsearch {@code champ^boost}
+     */
+    private static Map<String, Float> fields(List<String> fields) {
+        ImmutableMap.Builder<String, Float> builder = ImmutableMap.builder();
+        fields.forEach(field -> {
+            int boost = field.indexOf('^');
+            if (boost < 0) {
+                builder.put(field, 1.0f);
+            } else {
+                builder.put(field.substring(0, boost), Float.parseFloat(field.substring(boost + 1)));
+            }
+        });
+        return builder.build();
     }
 }
@@ -0,0 +1,69 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Requête compilée une seule fois en JSON, dont seul le terme recherché est substitué à chaque appel.<br/>
+ * Le rendu concatène les segments précalculés et le terme échappé, sans construire ni sérialiser
+ * de {@code QueryBuilder}; le résultat est transmis tel quel à elasticsearch via une requête {@code wrapper}.
+ */
+public class QueryTemplate {
+
+    /** marqueur du terme dans la requête prototype */
+    public static final String PLACEHOLDER = "__terme__";
+
+    private final byte[][] segments;
+
+    private QueryTemplate(byte[][] segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @param prototype une requête dont le terme est {@link #PLACEHOLDER}
+     * @return le template compilé
+     */
+    public static QueryTemplate compile(QueryBuilder prototype) {
+        String[] parts = Strings.toString(prototype).split(Pattern.quote(PLACEHOLDER), -1);
+
+        byte[][] segments = new byte[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            segments[i] = parts[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return new QueryTemplate(segments);
+    }
+
+    /**
+     * @param terme le terme recherché
+     * @return le corps JSON de la requête pour ce terme
+     */
+    public byte[] render(String terme) {
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(terme);
+
+        int length = escaped.length * (segments.length - 1);
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+
+        byte[] query = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                System.arraycopy(escaped, 0, query, offset, escaped.length);
+                offset += escaped.length;
+            }
+            System.arraycopy(segments[i], 0, query, offset, segments[i].length);
+            offset += segments[i].length;
+        }
+        return query;
+    }
+
+    public QueryBuilder queryBuilder(String terme) {
+        return QueryBuilders.wrapperQuery(render(terme));
+    }
+}
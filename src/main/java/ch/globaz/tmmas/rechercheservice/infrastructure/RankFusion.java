@@ -0,0 +1,119 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import lombok.Getter;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Fusion de plusieurs classements de hits en un seul.<br/>
+ * - RRF: chaque classement contribue 1 / (k + rang) au document (reciprocal rank fusion)<br/>
+ * - SCORE: chaque classement contribue le score du hit normalisé par le meilleur score du classement<br/>
+ * Les documents présents dans plusieurs classements cumulent leurs contributions; seuls les meilleurs
+ * sont conservés via un tas borné.
+ */
+public class RankFusion {
+
+    public enum Strategy {
+        RRF, SCORE
+    }
+
+    private static final Comparator<Fused> WORST_FIRST = Comparator
+            .comparingDouble(Fused::getScore)
+            .thenComparing(Fused::getId, Comparator.reverseOrder());
+
+    private final Strategy strategy;
+    private final int rrfK;
+
+    public RankFusion(Strategy strategy, int rrfK) {
+        this.strategy = strategy;
+        this.rrfK = rrfK;
+    }
+
+    /**
+     * @param rankings les classements à fusionner, chacun dans l'ordre de pertinence
+     * @param size le nombre maximal de hits retournés
+     * @return les meilleurs hits fusionnés, sans doublon, par pertinence décroissante
+     */
+    public List<SearchHit> fuse(List<SearchHit[]> rankings, int size) {
+        Map<String, Fused> fused = new HashMap<>();
+
+        for (SearchHit[] hits : rankings) {
+            float max = maxScore(hits);
+            for (int rank = 0; rank < hits.length; rank++) {
+                SearchHit hit = hits[rank];
+                fused.computeIfAbsent(hit.getId(), id -> new Fused(hit)).add(contribution(hit, rank, max));
+            }
+        }
+
+        PriorityQueue<Fused> heap = new PriorityQueue<>(size + 1, WORST_FIRST);
+        for (Fused candidate : fused.values()) {
+            heap.offer(candidate);
+            if (heap.size() > size) {
+                heap.poll();
+            }
+        }
+
+        List<SearchHit> top = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            top.add(heap.poll().getHit());
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    /**
+     * Un classement est jugé suffisant à lui seul s'il contient au moins {@code size} hits
+     * de score supérieur ou égal au seuil de confiance.
+     */
+    public static boolean isConfident(SearchHit[] hits, float minScore, int size) {
+        int confident = 0;
+        for (SearchHit hit : hits) {
+            if (score(hit) >= minScore && ++confident >= size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double contribution(SearchHit hit, int rank, float max) {
+        if (strategy == Strategy.RRF) {
+            return 1.0d / (rrfK + rank + 1);
+        }
+        return max > 0 ? score(hit) / max : 0;
+    }
+
+    private static float maxScore(SearchHit[] hits) {
+        float max = 0;
+        for (SearchHit hit : hits) {
+            max = Math.max(max, score(hit));
+        }
+        return max;
+    }
+
+    private static float score(SearchHit hit) {
+        return Float.isNaN(hit.getScore()) ? 0 : hit.getScore();
+    }
+
+    @Getter
+    private static class Fused {
+        private final SearchHit hit;
+        private final String id;
+        private double score;
+
+        Fused(SearchHit hit) {
+            this.hit = hit;
+            this.id = hit.getId();
+        }
+
+        void add(double contribution) {
+            score += contribution;
+        }
+    }
+}
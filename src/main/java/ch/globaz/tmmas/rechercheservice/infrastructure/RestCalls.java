@@ -0,0 +1,52 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * Appels asynchrones du client bas niveau, pour les API sans équivalent dans le client haut niveau
+ * (settings, alias, tâches, _reindex)
+ */
+final class RestCalls {
+
+    private RestCalls() {
+    }
+
+    /**
+     * @param body le corps JSON, aucun si null
+     * @return une Mono contenant la réponse, l'appel étant effectué à la souscription
+     */
+    static Mono<Response> perform(RestClient client, String method, String endpoint, Map<String, String> params,
+                                  String body) {
+        return perform(client, method, endpoint, params,
+                body == null ? null : new NStringEntity(body, ContentType.APPLICATION_JSON));
+    }
+
+    static Mono<Response> perform(RestClient client, String method, String endpoint, Map<String, String> params,
+                                  HttpEntity entity) {
+        return Mono.create(sink -> client.performRequestAsync(method, endpoint, params, entity, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                sink.success(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                sink.error(e);
+            }
+        }));
+    }
+
+    static boolean isStatus(Throwable error, int status) {
+        return error instanceof ResponseException
+                && ((ResponseException) error).getResponse().getStatusLine().getStatusCode() == status;
+    }
+}
@@ -0,0 +1,41 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+
+/**
+ * Curseur opaque de pagination basé sur {@code search_after}.<br/>
+ * Le curseur encode (JSON puis base64 url) les valeurs de tri du dernier hit d'une page;
+ * la page suivante reprend juste après ce hit, à coût constant quelle que soit sa profondeur.
+ */
+public class SearchCursor {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private SearchCursor() {
+    }
+
+    public static String encode(Object[] sortValues) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(sortValues));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param cursor un curseur produit par {@link #encode(Object[])}
+     * @return les valeurs de tri à passer à {@code search_after}
+     * @throws IllegalArgumentException si le curseur est invalide
+     */
+    public static Object[] decode(String cursor) {
+        try {
+            return MAPPER.readValue(Base64.getUrlDecoder().decode(cursor), Object[].class);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("cursor specified error : " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Partage d'un appel en vol entre les appelants identiques concurrents.<br/>
+ * Tant qu'un appel pour une clé n'est pas terminé, les souscriptions pour la même clé reçoivent
+ * son résultat au lieu de déclencher un nouvel appel. Une fois l'appel terminé, la clé est libérée.
+ * @param <K> le type de la clé identifiant l'appel
+ * @param <V> le type du résultat
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final Counter collapsed;
+
+    /**
+     * @param operation le nom de l'opération, utilisé comme tag de la métrique
+     * @param enabled false pour exécuter chaque appel sans partage
+     */
+    public SingleFlight(String operation, boolean enabled) {
+        this.enabled = enabled;
+        this.collapsed = Metrics.counter("es.singleflight.collapsed", "operation", operation);
+    }
+
+    /**
+     * @param key la clé de l'appel
+     * @param call l'appel à effectuer si aucun n'est en vol pour la clé
+     * @return une Mono partagée par tous les appelants de la clé
+     */
+    public Mono<V> execute(K key, Supplier<Mono<V>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        return Mono.defer(() -> {
+            AtomicBoolean created = new AtomicBoolean();
+            Mono<V> shared = inFlight.computeIfAbsent(key, k -> {
+                created.set(true);
+                return call.get()
+                        .doFinally(signal -> inFlight.remove(k))
+                        .cache();
+            });
+
+            if (!created.get()) {
+                collapsed.increment();
+            }
+            return shared;
+        });
+    }
+}
@@ -1,5 +1,8 @@
 package ch.globaz.tmmas.rechercheservice.application
 
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
 class PersonneDocumentsExample {
 
     static final String USER_NAME1 = "sce";
@@ -98,6 +101,14 @@ class PersonneDocumentsExample {
         "[$joins]"
     }
 
+    static String ndjsonDocuments(){
+        def slurper = new JsonSlurper()
+
+        [DOCUMENT_1, DOCUMENT_2, DOCUMENT_3]
+                .collect { JsonOutput.toJson(slurper.parseText(it)) }
+                .join("\n") + "\n"
+    }
+
 
 
 }
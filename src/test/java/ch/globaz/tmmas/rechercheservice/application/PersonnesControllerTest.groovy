@@ -11,8 +11,10 @@ import org.springframework.http.ResponseEntity
 import org.springframework.test.context.ContextConfiguration
 import spock.lang.Specification
 
+import static ch.globaz.tmmas.rechercheservice.application.api.web.ApiMediaTypes.APPLICATION_NDJSON
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT
 import static org.springframework.http.HttpMethod.PUT
+import static org.springframework.http.HttpStatus.BAD_REQUEST
 import static org.springframework.http.HttpStatus.CREATED
 import static org.springframework.http.HttpStatus.OK
 import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8
@@ -50,6 +52,20 @@ class PersonnesControllerTest extends Specification{
             response.statusCode == CREATED
     }
 
+    def 'should stream bulkindex ndjson documents'() {
+        given:
+            HttpHeaders headers = new HttpHeaders()
+            headers.setContentType(APPLICATION_NDJSON)
+            HttpEntity<String> request = new HttpEntity<String>(PersonneDocumentsExample.ndjsonDocuments(), headers)
+        when:
+            ResponseEntity<String> response = rest.exchange(bulkUrl(), PUT, request, String)
+        then:
+            response.statusCode == OK
+            def batches = response.body.readLines().findAll { it.trim() }.collect { jsonSlurper.parseText(it) }
+            batches.sum { it.items } == 3
+            batches.every { !it.errors }
+    }
+
     def 'should find indexed document'() {
         given:
             assert rest.exchange(url(), PUT, indexRequest(PersonneDocumentsExample.DOCUMENT_1), String).statusCode ==
@@ -75,6 +91,31 @@ class PersonnesControllerTest extends Specification{
             response.body[0].adresse.rue == 'Eglise'
     }
 
+    def 'should not find unrelated personnes with a partial nss'() {
+        given:
+            assert rest.exchange(bulkUrl(), PUT, indexRequest(PersonneDocumentsExample.documents()), String)
+                .statusCode == CREATED
+        when:
+            sleep(1000)
+            ResponseEntity<List> response = rest.getForEntity(url() + "/recherche?methode=wildcards&terme=756.1234", List)
+        then:
+            response.statusCode == OK
+            response.body*.username == [PersonneDocumentsExample.USER_NAME1]
+    }
+
+    def 'should reject malformed search parameters'() {
+        when:
+            ResponseEntity<String> response = rest.getForEntity(url() + "/$route?methode=$methode&terme=dupont$parameter", String)
+        then:
+            response.statusCode == BAD_REQUEST
+        where:
+            route       | methode     | parameter
+            'recherche' | 'fuzzy'     | '&cursor=not-a-cursor'
+            'recherche' | 'fuzzy'     | '&size=0'
+            'recherche' | 'fuzzy'     | '&size=abc'
+            'recherche' | 'unknown'   | ''
+            'export'    | 'unknown'   | ''
+    }
 
     private String url() {
         return "http://localhost:$port/personnes"
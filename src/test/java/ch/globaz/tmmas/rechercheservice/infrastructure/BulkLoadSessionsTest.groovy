@@ -0,0 +1,136 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import org.apache.http.HttpHost
+import org.elasticsearch.client.RestClient
+import org.elasticsearch.client.RestHighLevelClient
+import org.springframework.beans.factory.ObjectProvider
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.nio.charset.StandardCharsets
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+
+import static ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchIndexes.PERSONNES
+
+class BulkLoadSessionsTest extends Specification {
+
+    static final String SESSION = "/recherche-load-sessions/session/personne"
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    /** document de session enregistré, null si aucun */
+    volatile Map session
+    List<Map> settingsUpdates = new CopyOnWriteArrayList<>()
+    List<String> refreshes = new CopyOnWriteArrayList<>()
+
+    RestHighLevelClient client
+    IndexReindexer reindexer = new IndexReindexer(null, null, null, null, new ElasticSearchProperties())
+    BulkLoadSessions sessions
+
+    def setup() {
+        server.createContext("/", { HttpExchange exchange -> handle(exchange) })
+        server.start()
+        client = new RestHighLevelClient(RestClient.builder(new HttpHost("localhost", server.address.port)))
+        ObjectProvider<IndexReindexer> reindexers = Stub() {
+            getIfAvailable() >> reindexer
+        }
+        sessions = new BulkLoadSessions(client, new ObjectMapper(), new ElasticSearchProperties(), reindexers)
+    }
+
+    def cleanup() {
+        sessions.destroy()
+        client.close()
+        server.stop(0)
+    }
+
+    def 'should record the original settings and suspend refresh and replicas'() {
+        when:
+            BulkLoadSessions.BulkLoadSession started = sessions.start(PERSONNES, Duration.ofMinutes(5)).block(Duration.ofSeconds(5))
+        then:
+            started.refreshInterval == "1s"
+            started.numberOfReplicas == 2
+            session.refreshInterval == "1s"
+            settingsUpdates == [[index: [refresh_interval: "-1", number_of_replicas: 0]]]
+    }
+
+    def 'should restore the original settings and refresh on finish'() {
+        given:
+            sessions.start(PERSONNES, Duration.ofMinutes(5)).block(Duration.ofSeconds(5))
+        when:
+            sessions.finish(PERSONNES, null).block(Duration.ofSeconds(5))
+        then:
+            settingsUpdates.last() == [index: [refresh_interval: "1s", number_of_replicas: 2]]
+            session == null
+            refreshes == ["/personne/_refresh"]
+    }
+
+    def 'should restore the settings of an expired session'() {
+        given:
+            session = [index: "personne", owner: "crashed", refreshInterval: "1s", numberOfReplicas: 2,
+                       startedAt: 0, expiresAt: System.currentTimeMillis() - 1000]
+        when:
+            sessions.watchExpiredSessions()
+        then:
+            new PollingConditions(timeout: 5).eventually {
+                assert session == null
+                assert settingsUpdates == [[index: [refresh_interval: "1s", number_of_replicas: 2]]]
+            }
+    }
+
+    def 'should refuse a session while the index is reindexed'() {
+        given:
+            reindexer.current.set(new IndexReindexer.Status("personne"))
+        when:
+            sessions.start(PERSONNES, Duration.ofMinutes(5)).block(Duration.ofSeconds(5))
+        then:
+            thrown(IllegalStateException)
+            session == null
+            settingsUpdates.isEmpty()
+    }
+
+    /**
+     * Substitut des API de settings, de refresh et de l'index des sessions
+     */
+    private void handle(HttpExchange exchange) {
+        String method = exchange.requestMethod
+        String path = exchange.requestURI.path
+        String body = exchange.requestBody.getText(StandardCharsets.UTF_8.name())
+
+        if (method == "GET" && path.startsWith("/personne/_settings")) {
+            respond(exchange, 200, [personne_1: [settings: ["index.refresh_interval": "1s", "index.number_of_replicas": "2"]]])
+        } else if (method == "PUT" && path == "/personne/_settings") {
+            settingsUpdates << new JsonSlurper().parseText(body)
+            respond(exchange, 200, [acknowledged: true])
+        } else if (method == "POST" && path == "/personne/_refresh") {
+            refreshes << path
+            respond(exchange, 200, [:])
+        } else if (method == "PUT" && path == SESSION + "/_create") {
+            if (session != null) {
+                respond(exchange, 409, [error: "version_conflict_engine_exception"])
+            } else {
+                session = new JsonSlurper().parseText(body) as Map
+                respond(exchange, 201, [result: "created"])
+            }
+        } else if (method == "GET" && path == SESSION) {
+            respond(exchange, session == null ? 404 : 200, session == null ? [found: false] : [found: true, _source: session])
+        } else if (method == "DELETE" && path == SESSION) {
+            session = null
+            respond(exchange, 200, [result: "deleted"])
+        } else {
+            respond(exchange, 400, [error: "unexpected $method $path".toString()])
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) {
+        byte[] bytes = JsonOutput.toJson(body).getBytes(StandardCharsets.UTF_8)
+        exchange.responseHeaders.add("Content-Type", "application/json")
+        exchange.sendResponseHeaders(status, bytes.length)
+        exchange.responseBody.withCloseable { it.write(bytes) }
+    }
+}
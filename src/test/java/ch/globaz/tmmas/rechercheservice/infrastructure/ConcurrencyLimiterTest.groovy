@@ -0,0 +1,64 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import spock.lang.Specification
+
+import static ch.globaz.tmmas.rechercheservice.infrastructure.ElasticSearchOverloadedException.Reason.REJECTED
+import static ch.globaz.tmmas.rechercheservice.infrastructure.ElasticSearchOverloadedException.Reason.TIMEOUT
+
+class ConcurrencyLimiterTest extends Specification {
+
+    def 'should queue calls beyond the limit and run them once a call completes'() {
+        given:
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter("test-queue", limit(1, 1, 1000))
+            MonoProcessor<String> first = MonoProcessor.create()
+            List<String> results = []
+        when:
+            limiter.limit(first).subscribe({ results << it })
+            limiter.limit(Mono.just("second")).subscribe({ results << it })
+        then:
+            limiter.inFlight == 1
+            limiter.queued == 1
+            results.isEmpty()
+        when:
+            first.onNext("first")
+        then:
+            results == ["first", "second"]
+            limiter.inFlight == 0
+    }
+
+    def 'should reject calls when the queue is full'() {
+        given:
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter("test-reject", limit(1, 0, 1000))
+            limiter.limit(MonoProcessor.create()).subscribe()
+        when:
+            limiter.limit(Mono.just("rejected")).block()
+        then:
+            ElasticSearchOverloadedException e = thrown()
+            e.reason == REJECTED
+            e.retryAfterSeconds == 1
+    }
+
+    def 'should refuse calls waiting too long'() {
+        given:
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter("test-timeout", limit(1, 1, 10))
+            limiter.limit(MonoProcessor.create()).subscribe()
+        when:
+            limiter.limit(Mono.just("late")).block()
+        then:
+            ElasticSearchOverloadedException e = thrown()
+            e.reason == TIMEOUT
+            limiter.queued == 0
+    }
+
+    private static ElasticSearchProperties.Limit limit(int limit, int maxQueue, long maxWaitMillis) {
+        ElasticSearchProperties.Limit properties = new ElasticSearchProperties.Limit()
+        properties.initialLimit = limit
+        properties.maxLimit = limit
+        properties.maxQueue = maxQueue
+        properties.maxWaitMillis = maxWaitMillis
+        return properties
+    }
+}
@@ -0,0 +1,50 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import org.elasticsearch.action.get.GetResponse
+import org.elasticsearch.action.get.MultiGetItemResponse
+import org.elasticsearch.action.get.MultiGetResponse
+import org.elasticsearch.index.get.GetResult
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import spock.lang.Specification
+
+import java.time.Duration
+
+class GetRequestBatcherTest extends Specification {
+
+    def 'should answer every get while batches are produced faster than they are drained'() {
+        given:
+            GetRequestBatcher batcher = new GetRequestBatcher({ List<String> ids ->
+                Mono.delay(Duration.ofMillis(200)).thenReturn(response(ids))
+            }, 1, Duration.ofMillis(1))
+        when:
+            List<GetResponse> responses = Flux.range(0, 1000)
+                    .flatMap({ batcher.get("user$it") }, 1000)
+                    .collectList()
+                    .block(Duration.ofSeconds(30))
+        then:
+            notThrown(Exception)
+            responses*.id.sort() == (0..999).collect { "user$it".toString() }.sort()
+        cleanup:
+            batcher.dispose()
+    }
+
+    def 'should fail gets once disposed'() {
+        given:
+            GetRequestBatcher batcher = new GetRequestBatcher({ List<String> ids ->
+                Mono.just(response(ids))
+            }, 10, Duration.ofMillis(5))
+            batcher.dispose()
+        when:
+            batcher.get("late").block(Duration.ofSeconds(5))
+        then:
+            thrown(IllegalStateException)
+    }
+
+    private static MultiGetResponse response(List<String> ids) {
+        MultiGetItemResponse[] items = ids.collect { String id ->
+            new MultiGetItemResponse(new GetResponse(new GetResult("personne", "personne", id, 1, true, null, null)), null)
+        } as MultiGetItemResponse[]
+        new MultiGetResponse(items)
+    }
+}
@@ -0,0 +1,46 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import spock.lang.Specification
+
+class IndexReindexerTest extends Specification {
+
+    IndexReindexer reindexer = new IndexReindexer(null, null, null, null, new ElasticSearchProperties())
+
+    def 'should record a write acknowledged during the swap before it leaves the in-flight writes'() {
+        given:
+            reindexer.recording = true
+            MonoProcessor<List<String>> response = MonoProcessor.create()
+            List<Integer> inFlightWhenRecorded = []
+            reindexer.write(response, { List<String> ids ->
+                inFlightWhenRecorded << reindexer.writesInFlight.get()
+                ids
+            }).subscribe()
+        expect:
+            reindexer.writesInFlight.get() == 1
+            reindexer.written.isEmpty()
+        when:
+            response.onNext(["sce"])
+        then:
+            inFlightWhenRecorded == [1]
+            reindexer.written as List == ["sce"]
+            reindexer.writesInFlight.get() == 0
+    }
+
+    def 'should hold writes while a concrete index is swapped'() {
+        given:
+            reindexer.writeGate = MonoProcessor.create()
+            List<String> results = []
+        when:
+            reindexer.write(Mono.just(["sce"]), { it }).subscribe({ results.addAll(it) })
+        then:
+            results.isEmpty()
+            reindexer.writesInFlight.get() == 0
+        when:
+            reindexer.openWrites()
+        then:
+            results == ["sce"]
+    }
+}
@@ -0,0 +1,57 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import org.elasticsearch.action.DocWriteRequest
+import org.elasticsearch.action.bulk.BulkItemResponse
+import org.elasticsearch.action.bulk.BulkResponse
+import org.elasticsearch.action.index.IndexRequest
+import org.elasticsearch.action.index.IndexResponse
+import org.elasticsearch.index.shard.ShardId
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import spock.lang.Specification
+
+import java.time.Duration
+
+class IndexRequestCoalescerTest extends Specification {
+
+    def 'should keep coalescing while every bulk is in flight'() {
+        given:
+            IndexRequestCoalescer coalescer = new IndexRequestCoalescer({ List<IndexRequest> requests ->
+                Mono.delay(Duration.ofMillis(100)).thenReturn(response(requests))
+            }, 1, Duration.ofMillis(5), 1)
+        when:
+            List<IndexResponse> responses = Flux.range(0, 5)
+                    .delayElements(Duration.ofMillis(20))
+                    .flatMap({ coalescer.index(request("user$it")) })
+                    .collectList()
+                    .block(Duration.ofSeconds(5))
+        then:
+            responses*.id.sort() == (0..4).collect { "user$it".toString() }
+        cleanup:
+            coalescer.dispose()
+    }
+
+    def 'should fail calls once disposed'() {
+        given:
+            IndexRequestCoalescer coalescer = new IndexRequestCoalescer({ List<IndexRequest> requests ->
+                Mono.just(response(requests))
+            }, 10, Duration.ofMillis(5), 1)
+            coalescer.dispose()
+        when:
+            coalescer.index(request("late")).block(Duration.ofSeconds(5))
+        then:
+            thrown(IllegalStateException)
+    }
+
+    private static IndexRequest request(String id) {
+        new IndexRequest("personne", "personne", id)
+    }
+
+    private static BulkResponse response(List<IndexRequest> requests) {
+        BulkItemResponse[] items = requests.withIndex().collect { IndexRequest request, int i ->
+            BulkItemResponse.success(i, DocWriteRequest.OpType.INDEX, new IndexResponse(
+                    new ShardId("personne", "_na_", 0), "personne", request.id(), 1, 1, 1, true))
+        } as BulkItemResponse[]
+        new BulkResponse(items, 1)
+    }
+}
@@ -0,0 +1,73 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import ch.globaz.tmmas.rechercheservice.application.configuration.ElasticSearchProperties
+import org.apache.http.HttpHost
+import org.elasticsearch.client.RestClient
+import org.elasticsearch.client.RestHighLevelClient
+import reactor.core.publisher.Mono
+import spock.lang.Specification
+
+import java.time.Duration
+
+class NodeRouterTest extends Specification {
+
+    RestHighLevelClient fast = client("fast")
+    RestHighLevelClient slow = client("slow")
+    NodeRouter router
+
+    def cleanup() {
+        router?.close()
+    }
+
+    def 'should fall back to another node when the chosen node fails'() {
+        given:
+            router = router(false)
+            boolean failing = false
+            Closure<Mono<String>> call = { RestHighLevelClient client ->
+                client.is(fast)
+                        ? (failing ? Mono.error(new ConnectException("refused")) : Mono.just("fast"))
+                        : Mono.delay(Duration.ofMillis(50)).thenReturn("slow")
+            }
+            2.times { router.route(call).block(Duration.ofSeconds(5)) }
+        when:
+            failing = true
+            String response = router.route(call).block(Duration.ofSeconds(5))
+        then:
+            response == "slow"
+    }
+
+    def 'should keep the chosen node response when the hedged read fails'() {
+        given:
+            router = router(true)
+            boolean hedged = false
+            Closure<Mono<String>> call = { RestHighLevelClient client ->
+                if (client.is(fast)) {
+                    return hedged ? Mono.delay(Duration.ofMillis(200)).thenReturn("fast") : Mono.just("fast")
+                }
+                return hedged ? Mono.error(new ConnectException("refused")) : Mono.delay(Duration.ofMillis(50)).thenReturn("slow")
+            }
+            //latences observées avant que le délai de hedging ne soit calculé
+            130.times { router.route(call).block(Duration.ofSeconds(5)) }
+        when:
+            hedged = true
+            String response = router.route(call).block(Duration.ofSeconds(5))
+        then:
+            response == "fast"
+    }
+
+    private NodeRouter router(boolean hedging) {
+        ElasticSearchProperties.Routing properties = new ElasticSearchProperties.Routing()
+        properties.enabled = true
+        properties.hedging = hedging
+        properties.minHedgeDelayMillis = 20
+        properties.hedgeBudgetPercent = 100
+        Map<HttpHost, RestHighLevelClient> clients = new LinkedHashMap<>()
+        clients.put(new HttpHost("fast", 9200), fast)
+        clients.put(new HttpHost("slow", 9200), slow)
+        new NodeRouter(clients, properties)
+    }
+
+    private static RestHighLevelClient client(String host) {
+        new RestHighLevelClient(RestClient.builder(new HttpHost(host, 9200)))
+    }
+}
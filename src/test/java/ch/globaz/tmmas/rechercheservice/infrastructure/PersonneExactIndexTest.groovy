@@ -0,0 +1,72 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import ch.globaz.tmmas.rechercheservice.domaine.Employeur
+import ch.globaz.tmmas.rechercheservice.domaine.Personne
+import spock.lang.Specification
+
+class PersonneExactIndexTest extends Specification {
+
+    def 'should encode nss with or without separators'() {
+        expect:
+            PersonneExactIndex.key("756.1234.5678.97") == PersonneExactIndex.key(" 7561234567897 ")
+            PersonneExactIndex.key("756.1234.5678.97") != PersonneExactIndex.key("756.1234.5678.98")
+            PersonneExactIndex.key("CHE-123.456.789") == -1
+            PersonneExactIndex.key("dupont") == -1
+            PersonneExactIndex.key("756.1234") == -1
+    }
+
+    def 'should find personnes by nss beyond the expected entries'() {
+        given:
+            PersonneExactIndex index = new PersonneExactIndex(4)
+        when:
+            (1..100).each { index.put(personne("user$it", String.format("756.1234.%04d.97", it), "CHE-123.456.789")) }
+        then:
+            index.size() == 100
+            index.find(PersonneExactIndex.key("756.1234.0042.97")) == ["user42"]
+            index.find(PersonneExactIndex.key("756.9999.9999.99")).isEmpty()
+    }
+
+    def 'should not duplicate a reindexed personne'() {
+        given:
+            PersonneExactIndex index = new PersonneExactIndex(16)
+        when:
+            index.put(personne("sce", "756.1234.5678.97", null))
+            index.put(personne("sce", "756.1234.5678.97", null))
+        then:
+            index.size() == 1
+    }
+
+    def 'should remove stale entries and reuse their slots'() {
+        given:
+            PersonneExactIndex index = new PersonneExactIndex(16)
+            long key = PersonneExactIndex.key("756.1234.5678.97")
+            index.put(personne("sce", "756.1234.5678.97", null))
+            index.put(personne("jdo", "756.1234.5678.97", null))
+        when:
+            index.remove(key, "sce")
+            (1..50).each { index.put(personne("user$it", String.format("756.0000.%04d.11", it), null)) }
+        then:
+            index.find(key) == ["jdo"]
+            index.size() == 51
+    }
+
+    def 'should verify documents against their key'() {
+        given:
+            Personne doc = personne("sce", "756.1234.5678.97", "CHE-123.456.789")
+        expect:
+            PersonneExactIndex.matches(doc, PersonneExactIndex.key("7561234567897"))
+            !PersonneExactIndex.matches(doc, PersonneExactIndex.key("756.0000.0000.00"))
+    }
+
+    private static Personne personne(String username, String nss, String ide) {
+        Personne personne = new Personne()
+        personne.username = username
+        personne.nss = nss
+        if (ide != null) {
+            Employeur employeur = new Employeur()
+            employeur.ide = ide
+            personne.employeur = employeur
+        }
+        personne
+    }
+}
@@ -0,0 +1,24 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import groovy.json.JsonSlurper
+import org.elasticsearch.index.query.QueryBuilders
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class QueryTemplateTest extends Specification {
+
+    def jsonSlurper = new JsonSlurper()
+
+    def 'should substitute escaped terme in compiled query'() {
+        given:
+            QueryTemplate template = QueryTemplate.compile(QueryBuilders
+                    .queryStringQuery("*" + QueryTemplate.PLACEHOLDER + "*")
+                    .field("nom"))
+        when:
+            def query = jsonSlurper.parseText(new String(template.render('Ch"èvre'), StandardCharsets.UTF_8))
+        then:
+            query.query_string.query == '*Ch"èvre*'
+            query.query_string.fields == ["nom^1.0"]
+    }
+}
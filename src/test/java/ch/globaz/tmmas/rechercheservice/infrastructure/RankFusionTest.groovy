@@ -0,0 +1,43 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import org.elasticsearch.common.text.Text
+import org.elasticsearch.search.SearchHit
+import spock.lang.Specification
+
+class RankFusionTest extends Specification {
+
+    def 'should rank documents found by both queries first'() {
+        given:
+            RankFusion fusion = new RankFusion(RankFusion.Strategy.RRF, 60)
+            SearchHit[] wildcards = [hit("sce", 3f), hit("sde", 2f)]
+            SearchHit[] fuzzy = [hit("sze", 9f), hit("sde", 8f)]
+        when:
+            List<SearchHit> fused = fusion.fuse([wildcards, fuzzy], 5)
+        then:
+            fused*.id == ["sde", "sce", "sze"]
+    }
+
+    def 'should keep only the best documents'() {
+        given:
+            RankFusion fusion = new RankFusion(RankFusion.Strategy.SCORE, 60)
+            SearchHit[] wildcards = [hit("sce", 4f), hit("sde", 2f), hit("sze", 1f)]
+        when:
+            List<SearchHit> fused = fusion.fuse([wildcards, [] as SearchHit[]], 2)
+        then:
+            fused*.id == ["sce", "sde"]
+    }
+
+    def 'should detect confident ranking'() {
+        given:
+            SearchHit[] hits = [hit("sce", 6f), hit("sde", 5f), hit("sze", 1f)]
+        expect:
+            RankFusion.isConfident(hits, 5f, 2)
+            !RankFusion.isConfident(hits, 5f, 3)
+    }
+
+    private static SearchHit hit(String id, float score) {
+        SearchHit hit = new SearchHit(0, id, new Text("personne"), [:])
+        hit.score(score)
+        return hit
+    }
+}
@@ -0,0 +1,23 @@
+package ch.globaz.tmmas.rechercheservice.infrastructure
+
+import spock.lang.Specification
+
+class SearchCursorTest extends Specification {
+
+    def 'should decode encoded sort values'() {
+        given:
+            Object[] sortValues = [1.25d, "sce"] as Object[]
+        when:
+            String cursor = SearchCursor.encode(sortValues)
+        then:
+            !cursor.contains("=")
+            SearchCursor.decode(cursor) == sortValues
+    }
+
+    def 'should reject invalid cursor'() {
+        when:
+            SearchCursor.decode("not a cursor")
+        then:
+            thrown(IllegalArgumentException)
+    }
+}